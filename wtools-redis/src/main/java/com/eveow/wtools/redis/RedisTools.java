@@ -1,8 +1,20 @@
 package com.eveow.wtools.redis;
 
+import com.eveow.wtools.redis.common.RedisGcraLimiter;
+import com.eveow.wtools.redis.common.RedisRateLimiter;
+import com.eveow.wtools.redis.common.RedisSlidingWindowLimiter;
+import com.eveow.wtools.redis.lock.RedisCoalescingLock;
+import com.eveow.wtools.redis.lock.RedisCountDownLatch;
+import com.eveow.wtools.redis.lock.RedisFairLock;
 import com.eveow.wtools.redis.lock.RedisLock;
+import com.eveow.wtools.redis.lock.RedisLockAsync;
+import com.eveow.wtools.redis.lock.RedisMultiLock;
+import com.eveow.wtools.redis.lock.RedisReadWriteLock;
+import com.eveow.wtools.redis.lock.RedisSemaphore;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * @author wangjianping
  */
@@ -26,4 +38,109 @@ public class RedisTools {
     public RedisLock getLock(String name) {
         return new RedisLock(factory, name);
     }
+
+    /**
+     * 获取公平分布式锁，按等待的先后获取锁，竞争激烈时可避免个别节点长时间拿不到锁
+     *
+     * @param name
+     * @return
+     */
+    public RedisFairLock getFairLock(String name) {
+        return new RedisFairLock(factory, name);
+    }
+
+    /**
+     * 获取非阻塞的分布式锁
+     *
+     * @param name
+     * @return
+     */
+    public RedisLockAsync getAsyncLock(String name) {
+        return new RedisLockAsync(factory, name);
+    }
+
+    /**
+     * 获取进程内合并竞争的分布式锁，适合单节点内大量线程争抢同一把锁的场景
+     *
+     * @param name
+     * @return
+     */
+    public RedisCoalescingLock getCoalescingLock(String name) {
+        return new RedisCoalescingLock(factory, name);
+    }
+
+    /**
+     * 获取多key分布式锁，一次脚本调用获取或释放全部key，集群下所有key须落在同一个槽
+     *
+     * @param names
+     * @return
+     */
+    public RedisMultiLock getMultiLock(String... names) {
+        return new RedisMultiLock(factory, names);
+    }
+
+    /**
+     * 获取分布式读写锁
+     *
+     * @param name
+     * @return
+     */
+    public RedisReadWriteLock getReadWriteLock(String name) {
+        return new RedisReadWriteLock(factory, name);
+    }
+
+    /**
+     * 获取分布式信号量，首次使用前需通过trySetPermits初始化许可数
+     *
+     * @param name
+     * @return
+     */
+    public RedisSemaphore getSemaphore(String name) {
+        return new RedisSemaphore(factory, name);
+    }
+
+    /**
+     * 获取分布式闭锁，首次使用前需通过trySetCount初始化计数
+     *
+     * @param name
+     * @return
+     */
+    public RedisCountDownLatch getCountDownLatch(String name) {
+        return new RedisCountDownLatch(factory, name);
+    }
+
+    /**
+     * 获取分布式限流器，所有节点共享同一流速
+     *
+     * @param name
+     * @param permitsPerSecond 全局流速
+     * @return
+     */
+    public RedisRateLimiter getRateLimiter(String name, double permitsPerSecond) {
+        return RedisRateLimiter.create(factory, name, permitsPerSecond);
+    }
+
+    /**
+     * 获取分布式GCRA限流器，redis中只存一个时间戳
+     *
+     * @param name
+     * @param permitsPerSecond 全局流速
+     * @return
+     */
+    public RedisGcraLimiter getGcraLimiter(String name, double permitsPerSecond) {
+        return RedisGcraLimiter.create(factory, name, permitsPerSecond);
+    }
+
+    /**
+     * 获取分布式滑动窗口限流器
+     *
+     * @param name
+     * @param limit 窗口内允许通过的令牌数
+     * @param window 窗口长度
+     * @param unit
+     * @return
+     */
+    public RedisSlidingWindowLimiter getSlidingWindowLimiter(String name, int limit, long window, TimeUnit unit) {
+        return RedisSlidingWindowLimiter.create(factory, name, limit, window, unit);
+    }
 }
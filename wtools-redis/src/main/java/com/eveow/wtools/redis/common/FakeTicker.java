@@ -0,0 +1,62 @@
+package com.eveow.wtools.redis.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 虚拟时间源，时间只在{@link #advance}、等待或每次读取的自动步进时前进<br/>
+ * 等待直接推进虚拟时间并立即返回，可在毫秒内跑完长时间的限流场景；
+ * 依赖外部通知的等待（如锁的释放通知）仍是真实等待，可设置自动步进使每次读取都前进，避免永远等不到超时
+ *
+ * @author wangjianping
+ */
+public class FakeTicker extends Ticker {
+
+    /**
+     * 当前虚拟时间（纳秒）
+     */
+    private final AtomicLong nanos = new AtomicLong();
+
+    /**
+     * 每次读取后自动前进的纳秒数
+     */
+    private volatile long autoIncrementStepNanos;
+
+    /**
+     * 前进指定时间
+     */
+    public FakeTicker advance(long time, TimeUnit unit) {
+        return advance(unit.toNanos(time));
+    }
+
+    /**
+     * 前进指定纳秒数
+     */
+    public FakeTicker advance(long nanoseconds) {
+        nanos.addAndGet(nanoseconds);
+        return this;
+    }
+
+    /**
+     * 设置每次读取后自动前进的时间，0为不自动前进
+     */
+    public FakeTicker setAutoIncrementStep(long time, TimeUnit unit) {
+        if (time < 0) {
+            throw new IllegalArgumentException("autoIncrementStep must not be negative");
+        }
+        this.autoIncrementStepNanos = unit.toNanos(time);
+        return this;
+    }
+
+    @Override
+    public long read() {
+        return nanos.getAndAdd(autoIncrementStepNanos);
+    }
+
+    @Override
+    public void sleepMicrosUninterruptibly(long micros) {
+        if (micros > 0) {
+            advance(micros, TimeUnit.MICROSECONDS);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.eveow.wtools.redis.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * GCRA（通用信元速率算法）限流，状态只有一个理论到达时间TAT，以CAS更新<br/>
+ * 每个令牌把TAT推后一个发放间隔，TAT超过当前时间加容忍度时需要等待到两者相等；容忍度为突发时间，
+ * 空闲时最多可突发maxPermits = maxBurstSeconds * permitsPerSecond个令牌。与令牌桶不同，超出突发的请求自己等待，不预支给下一次
+ *
+ * @author wangjianping
+ */
+public class GcraLimiter implements Limiter {
+
+    /**
+     * 时间源
+     */
+    private final Ticker ticker;
+
+    /**
+     * 对象创建时的时间，用于做时间偏差基量
+     */
+    private final long offsetNanos;
+
+    /**
+     * 发放一个令牌的间隔（纳秒）
+     */
+    private final double emissionIntervalNanos;
+
+    /**
+     * 容忍度（纳秒），即允许TAT超前当前时间的最大值
+     */
+    private final long toleranceNanos;
+
+    /**
+     * 理论到达时间（相对offsetNanos的纳秒数）
+     */
+    private final AtomicLong tat = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * 构造函数
+     *
+     * @param permitsPerSecond 流速
+     */
+    public static GcraLimiter create(double permitsPerSecond) {
+        return create(permitsPerSecond, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 可指定允许的突发时间
+     *
+     * @param permitsPerSecond 流速
+     * @param maxBurstBuildup 应对突发流量的时间，默认为1s
+     * @param unit maxBurstBuildup时间单位
+     */
+    public static GcraLimiter create(double permitsPerSecond, long maxBurstBuildup, TimeUnit unit) {
+        return create(Ticker.systemTicker(), permitsPerSecond, maxBurstBuildup, unit);
+    }
+
+    /**
+     * 指定时间源
+     *
+     * @param ticker 时间源
+     * @param permitsPerSecond 流速
+     * @param maxBurstBuildup 应对突发流量的时间
+     * @param unit maxBurstBuildup时间单位
+     */
+    public static GcraLimiter create(Ticker ticker, double permitsPerSecond, long maxBurstBuildup, TimeUnit unit) {
+        if (permitsPerSecond <= 0.0 || Double.isNaN(permitsPerSecond)) {
+            throw new IllegalArgumentException("rate must be positive");
+        }
+        return new GcraLimiter(ticker, permitsPerSecond, unit.toNanos(maxBurstBuildup));
+    }
+
+    private GcraLimiter(Ticker ticker, double permitsPerSecond, long toleranceNanos) {
+        this.ticker = ticker;
+        this.offsetNanos = ticker.read();
+        this.emissionIntervalNanos = TimeUnit.SECONDS.toNanos(1L) / permitsPerSecond;
+        this.toleranceNanos = toleranceNanos;
+    }
+
+    @Override
+    public double acquire(int permits) {
+        checkPermits(permits);
+        long nanosToWait = reserve(permits, -1);
+        ticker.sleepMicrosUninterruptibly(TimeUnit.NANOSECONDS.toMicros(nanosToWait));
+        return 1.0 * nanosToWait / TimeUnit.SECONDS.toNanos(1L);
+    }
+
+    @Override
+    public boolean tryAcquire(int permits, long timeout, TimeUnit unit) {
+        checkPermits(permits);
+        long nanosToWait = reserve(permits, Math.max(unit.toNanos(timeout), 0));
+        if (nanosToWait < 0) {
+            return false;
+        }
+        ticker.sleepMicrosUninterruptibly(TimeUnit.NANOSECONDS.toMicros(nanosToWait));
+        return true;
+    }
+
+    @Override
+    public final double getRate() {
+        return TimeUnit.SECONDS.toNanos(1L) / emissionIntervalNanos;
+    }
+
+    /**
+     * 推后TAT并计算需要等待的时间
+     *
+     * @param permits 需要的令牌数
+     * @param timeoutNanos 超时时间，小于0为不限制
+     * @return 需要等待的纳秒数，超时时间内无法获取时返回-1
+     */
+    private long reserve(int permits, long timeoutNanos) {
+        long nowNanos = ticker.read() - offsetNanos;
+        long increment = (long) (permits * emissionIntervalNanos);
+        while (true) {
+            long prev = tat.get();
+            // TAT已是过去时间，说明桶已空闲，从当前时间开始计算
+            long newTat = Math.max(prev, nowNanos) + increment;
+            long nanosToWait = Math.max(newTat - toleranceNanos - nowNanos, 0);
+            if (timeoutNanos >= 0 && nanosToWait > timeoutNanos) {
+                return -1;
+            }
+            if (tat.compareAndSet(prev, newTat)) {
+                return nanosToWait;
+            }
+        }
+    }
+
+    private static void checkPermits(int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("Requested permits must be positive");
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package com.eveow.wtools.redis.common;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按key限流，每个key一个令牌桶，所有key共用同一流速，算法与{@link RateLimiter}相同<br/>
+ * 桶状态不为每个key创建对象，而是按分段存放在开放寻址的基本类型数组中，每个key约占一个引用、一个int、一个double和一个long；
+ * 新key按满桶处理，因此已经恢复为满桶的key与不存在等价，分段扩容前会先清理这类空闲key，内存只随活跃key的数量增长
+ *
+ * @author wangjianping
+ */
+public class KeyedRateLimiter<K> {
+
+    /**
+     * 分段数，须为2的幂
+     */
+    private static final int SEGMENTS = 64;
+
+    /**
+     * 每个分段的初始容量，须为2的幂
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * 装载因子
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /**
+     * 时间源
+     */
+    private final Ticker ticker;
+
+    /**
+     * 对象创建时的时间，用于做时间偏差基量
+     */
+    private final long offsetNanos;
+
+    /**
+     * 桶的最大容量
+     */
+    private final double maxPermits;
+
+    /**
+     * 稳定生成一张令牌的时间
+     */
+    private final double stableIntervalMicros;
+
+    /**
+     * 分段
+     */
+    private final Segment[] segments;
+
+    /**
+     * 构造函数
+     *
+     * @param permitsPerSecond 每个key的流速
+     */
+    public static <K> KeyedRateLimiter<K> create(double permitsPerSecond) {
+        return create(permitsPerSecond, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 可指定允许的突发时间
+     *
+     * @param permitsPerSecond 每个key的流速
+     * @param maxBurstBuildup 应对突发流量的时间，默认为1s，maxPermits = maxBurstSeconds * permitsPerSecond
+     * @param unit maxBurstBuildup时间单位
+     */
+    public static <K> KeyedRateLimiter<K> create(double permitsPerSecond, long maxBurstBuildup, TimeUnit unit) {
+        return create(Ticker.systemTicker(), permitsPerSecond, maxBurstBuildup, unit);
+    }
+
+    /**
+     * 指定时间源
+     *
+     * @param ticker 时间源
+     * @param permitsPerSecond 每个key的流速
+     * @param maxBurstBuildup 应对突发流量的时间，maxPermits = maxBurstSeconds * permitsPerSecond
+     * @param unit maxBurstBuildup时间单位
+     */
+    public static <K> KeyedRateLimiter<K> create(Ticker ticker, double permitsPerSecond, long maxBurstBuildup,
+        TimeUnit unit) {
+        if (permitsPerSecond <= 0.0 || Double.isNaN(permitsPerSecond)) {
+            throw new IllegalArgumentException("rate must be positive");
+        }
+        double maxBurstSeconds = unit.toNanos(maxBurstBuildup) / 1E+9;
+        return new KeyedRateLimiter<>(ticker, permitsPerSecond, maxBurstSeconds);
+    }
+
+    private KeyedRateLimiter(Ticker ticker, double permitsPerSecond, double maxBurstSeconds) {
+        this.ticker = ticker;
+        this.offsetNanos = ticker.read();
+        this.stableIntervalMicros = TimeUnit.SECONDS.toMicros(1L) / permitsPerSecond;
+        this.maxPermits = maxBurstSeconds * permitsPerSecond;
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxPermits, stableIntervalMicros);
+        }
+    }
+
+    /**
+     * 获取流速
+     */
+    public final double getRate() {
+        return TimeUnit.SECONDS.toMicros(1L) / stableIntervalMicros;
+    }
+
+    /**
+     * 为key获取一个令牌
+     */
+    public double acquire(K key) {
+        return acquire(key, 1);
+    }
+
+    /**
+     * 为key获取permits个令牌
+     *
+     * @return 等待的秒数
+     */
+    public double acquire(K key, int permits) {
+        long microsToWait = reserve(key, permits);
+        // 阻塞等待
+        ticker.sleepMicrosUninterruptibly(microsToWait);
+        return 1.0 * microsToWait / TimeUnit.SECONDS.toMicros(1L);
+    }
+
+    /**
+     * 为key预占permits个令牌，不阻塞
+     *
+     * @return 调用方需要等待的微秒数
+     */
+    public long reserve(K key, int permits) {
+        checkPermits(permits);
+        int hash = hash(key);
+        return segmentFor(hash).reserve(key, hash, permits, readSafeMicros(), -1);
+    }
+
+    /**
+     * 为key尝试获取一个令牌
+     */
+    public boolean tryAcquire(K key) {
+        return tryAcquire(key, 1, 0, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * 为key尝试获取permits个令牌
+     */
+    public boolean tryAcquire(K key, int permits) {
+        return tryAcquire(key, permits, 0, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * 在超时时间内为key尝试获取1个令牌
+     */
+    public boolean tryAcquire(K key, long timeout, TimeUnit unit) {
+        return tryAcquire(key, 1, timeout, unit);
+    }
+
+    /**
+     * 在超时时间内为key尝试获取permits个令牌
+     */
+    public boolean tryAcquire(K key, int permits, long timeout, TimeUnit unit) {
+        checkPermits(permits);
+        long timeoutMicros = Math.max(unit.toMicros(timeout), 0);
+        int hash = hash(key);
+        long microsToWait = segmentFor(hash).reserve(key, hash, permits, readSafeMicros(), timeoutMicros);
+        if (microsToWait < 0) {
+            return false;
+        }
+        // 阻塞等待
+        ticker.sleepMicrosUninterruptibly(microsToWait);
+        return true;
+    }
+
+    /**
+     * 当前记录的key数量
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * 清理已恢复为满桶的key
+     *
+     * @return 清理的key数量
+     */
+    public int evictIdle() {
+        long nowMicros = readSafeMicros();
+        int evicted = 0;
+        for (Segment segment : segments) {
+            evicted += segment.evict(nowMicros);
+        }
+        return evicted;
+    }
+
+    private Segment segmentFor(int hash) {
+        // 高位选分段，低位在分段内寻址
+        return segments[hash >>> 26];
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) * 0x9E3779B9;
+    }
+
+    private static void checkPermits(int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("Requested permits must be positive");
+        }
+    }
+
+    /**
+     * 获取当前时间偏差
+     */
+    private long readSafeMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(ticker.read() - offsetNanos);
+    }
+
+    /**
+     * 分段，线性探测的开放寻址表，各数组按槽位对应
+     */
+    private static final class Segment {
+
+        /**
+         * 桶的最大容量
+         */
+        private final double maxPermits;
+
+        /**
+         * 稳定生成一张令牌的时间
+         */
+        private final double stableIntervalMicros;
+
+        /**
+         * key，空槽为null
+         */
+        private Object[] keys = new Object[INITIAL_CAPACITY];
+
+        /**
+         * key的hash
+         */
+        private int[] hashes = new int[INITIAL_CAPACITY];
+
+        /**
+         * 桶中存储的令牌数
+         */
+        private double[] storedPermits = new double[INITIAL_CAPACITY];
+
+        /**
+         * 下一次可直接获取令牌的时间
+         */
+        private long[] nextFreeTicketMicros = new long[INITIAL_CAPACITY];
+
+        /**
+         * key数量
+         */
+        private int size;
+
+        /**
+         * 扩容阈值
+         */
+        private int threshold = (int) (INITIAL_CAPACITY * LOAD_FACTOR);
+
+        Segment(double maxPermits, double stableIntervalMicros) {
+            this.maxPermits = maxPermits;
+            this.stableIntervalMicros = stableIntervalMicros;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * 获取需要等待的时间，并更新桶模拟计数，逻辑同{@link RateLimiter}
+         *
+         * @return 需要等待的时间，超时时间内不会到达下一次时间时返回-1
+         */
+        synchronized long reserve(Object key, int hash, double requiredPermits, long nowMicros, long timeoutMicros) {
+            int index = find(key, hash);
+            double stored;
+            long next;
+            if (index >= 0) {
+                stored = storedPermits[index];
+                next = nextFreeTicketMicros[index];
+            } else {
+                // 新key按满桶处理
+                stored = maxPermits;
+                next = nowMicros;
+            }
+            // 在超时时间内不会到达下一次时间，也就不会有新的令牌生成
+            if (timeoutMicros >= 0 && next > nowMicros + timeoutMicros) {
+                return -1;
+            }
+            if (nowMicros > next) {
+                stored = Math.min(maxPermits, stored + (nowMicros - next) / stableIntervalMicros);
+                next = nowMicros;
+            }
+            long microsToNextFreeTicket = next - nowMicros;
+            double storedPermitsToSpend = Math.min(requiredPermits, stored);
+            double freshPermits = requiredPermits - storedPermitsToSpend;
+            long waitMicros = (long) (freshPermits * stableIntervalMicros);
+
+            if (index < 0) {
+                index = insert(key, hash, nowMicros);
+            }
+            storedPermits[index] = stored - storedPermitsToSpend;
+            nextFreeTicketMicros[index] = next + waitMicros;
+            return microsToNextFreeTicket;
+        }
+
+        /**
+         * 清理已恢复为满桶的key
+         */
+        synchronized int evict(long nowMicros) {
+            int before = size;
+            rebuild(nowMicros, 0);
+            return before - size;
+        }
+
+        private int find(Object key, int hash) {
+            int mask = keys.length - 1;
+            int i = hash & mask;
+            Object k;
+            while ((k = keys[i]) != null) {
+                if (hashes[i] == hash && k.equals(key)) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * 插入新key，达到阈值时先清理空闲key，仍不够再扩容
+         */
+        private int insert(Object key, int hash, long nowMicros) {
+            if (size + 1 > threshold) {
+                rebuild(nowMicros, 1);
+            }
+            int mask = keys.length - 1;
+            int i = hash & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            hashes[i] = hash;
+            size++;
+            return i;
+        }
+
+        /**
+         * 去掉满桶的key后重建，容量保证清理后到下一次重建之间至少还能插入一半阈值的key，避免频繁重建
+         *
+         * @param reserved 重建后需要预留的槽位数
+         */
+        private void rebuild(long nowMicros, int reserved) {
+            Object[] oldKeys = keys;
+            int[] oldHashes = hashes;
+            double[] oldStored = storedPermits;
+            long[] oldNext = nextFreeTicketMicros;
+            boolean[] keep = new boolean[oldKeys.length];
+            int live = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null && !isFull(i, nowMicros)) {
+                    keep[i] = true;
+                    live++;
+                }
+            }
+            int capacity = INITIAL_CAPACITY;
+            while ((live + reserved) > capacity * LOAD_FACTOR / 2) {
+                capacity <<= 1;
+            }
+
+            keys = new Object[capacity];
+            hashes = new int[capacity];
+            storedPermits = new double[capacity];
+            nextFreeTicketMicros = new long[capacity];
+            threshold = (int) (capacity * LOAD_FACTOR);
+            size = live;
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (!keep[i]) {
+                    continue;
+                }
+                int j = oldHashes[i] & mask;
+                while (keys[j] != null) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                hashes[j] = oldHashes[i];
+                storedPermits[j] = oldStored[i];
+                nextFreeTicketMicros[j] = oldNext[i];
+            }
+        }
+
+        /**
+         * 是否已恢复为满桶
+         */
+        private boolean isFull(int index, long nowMicros) {
+            long next = nextFreeTicketMicros[index];
+            return nowMicros >= next
+                && storedPermits[index] + (nowMicros - next) / stableIntervalMicros >= maxPermits;
+        }
+    }
+}
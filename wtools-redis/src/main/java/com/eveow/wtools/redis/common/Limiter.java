@@ -0,0 +1,61 @@
+package com.eveow.wtools.redis.common;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 限流器接口，令牌桶（{@link RateLimiter}、{@link RedisRateLimiter}）、GCRA（{@link GcraLimiter}、
+ * {@link RedisGcraLimiter}）和滑动窗口（{@link SlidingWindowLimiter}、{@link RedisSlidingWindowLimiter}）均实现此接口
+ *
+ * @author wangjianping
+ */
+public interface Limiter {
+
+    /**
+     * 获取一个令牌
+     *
+     * @return 等待的秒数
+     */
+    default double acquire() {
+        return acquire(1);
+    }
+
+    /**
+     * 获取permits个令牌，阻塞直到获取成功
+     *
+     * @return 等待的秒数
+     */
+    double acquire(int permits);
+
+    /**
+     * 尝试获取一个令牌，不等待
+     */
+    default boolean tryAcquire() {
+        return tryAcquire(1, 0, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * 尝试获取permits个令牌，不等待
+     */
+    default boolean tryAcquire(int permits) {
+        return tryAcquire(permits, 0, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * 在超时时间内尝试获取1个令牌
+     */
+    default boolean tryAcquire(long timeout, TimeUnit unit) {
+        return tryAcquire(1, timeout, unit);
+    }
+
+    /**
+     * 在超时时间内尝试获取permits个令牌
+     *
+     * @return 超时时间内可获取时等待后返回true，否则立即返回false
+     */
+    boolean tryAcquire(int permits, long timeout, TimeUnit unit);
+
+    /**
+     * 获取流速（每秒令牌数）
+     */
+    double getRate();
+}
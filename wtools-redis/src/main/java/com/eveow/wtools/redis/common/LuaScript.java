@@ -0,0 +1,121 @@
+package com.eveow.wtools.redis.common;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * lua脚本，脚本内容和sha1在创建时编码一次<br/>
+ * 执行时优先用EVALSHA只发送sha1，redis未缓存该脚本（NOSCRIPT）时回退为EVAL，EVAL会同时把脚本缓存到redis，
+ * 后续调用重新走EVALSHA；脚本对象应作为常量复用
+ *
+ * @author wangjianping
+ */
+public class LuaScript {
+
+    /**
+     * NOSCRIPT错误前缀
+     */
+    private static final String NO_SCRIPT = "NOSCRIPT";
+
+    /**
+     * 脚本内容
+     */
+    private final String script;
+
+    /**
+     * 编码后的脚本
+     */
+    private final byte[] scriptBytes;
+
+    /**
+     * 脚本sha1
+     */
+    private final String sha1;
+
+    /**
+     * 编码后的sha1
+     */
+    private final byte[] sha1Bytes;
+
+    public LuaScript(String script) {
+        this.script = script;
+        this.scriptBytes = script.getBytes(StandardCharsets.UTF_8);
+        this.sha1 = sha1Hex(scriptBytes);
+        this.sha1Bytes = sha1.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public String getScript() {
+        return script;
+    }
+
+    public String getSha1() {
+        return sha1;
+    }
+
+    /**
+     * 执行脚本
+     *
+     * @param connection redis连接
+     * @param returnType 返回类型
+     * @param numKeys key的数量
+     * @param keysAndArgs key和参数
+     * @return
+     */
+    public <T> T eval(RedisConnection connection, ReturnType returnType, int numKeys, byte[]... keysAndArgs) {
+        try {
+            return connection.evalSha(sha1Bytes, returnType, numKeys, keysAndArgs);
+        } catch (RuntimeException e) {
+            if (!isNoScript(e)) {
+                throw e;
+            }
+            // 脚本未缓存，EVAL执行并缓存
+            return connection.eval(scriptBytes, returnType, numKeys, keysAndArgs);
+        }
+    }
+
+    /**
+     * 在pipeline中执行脚本，结果由closePipeline返回；pipeline无法单条回退，调用前需保证脚本已缓存，
+     * closePipeline出现NOSCRIPT时先{@link #load(RedisConnection)}再重试
+     */
+    public void evalInPipeline(RedisConnection connection, ReturnType returnType, int numKeys,
+        byte[]... keysAndArgs) {
+        connection.evalSha(sha1Bytes, returnType, numKeys, keysAndArgs);
+    }
+
+    /**
+     * 把脚本缓存到redis
+     */
+    public void load(RedisConnection connection) {
+        connection.scriptLoad(scriptBytes);
+    }
+
+    /**
+     * 判断是否为脚本未缓存错误
+     */
+    public static boolean isNoScript(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            String message = t.getMessage();
+            if (message != null && message.contains(NO_SCRIPT)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String sha1Hex(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,51 +1,62 @@
 package com.eveow.wtools.redis.common;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * 限流工具类，从guava的RateLimiter中提炼，只保留了Bursty实现，去掉了WarmingUp代码
+ * 限流工具类，从guava的RateLimiter中提炼，包含Bursty和WarmingUp两种实现<br/>
+ * WarmingUp：桶中存储的令牌越多（即越“冷”），发放存储令牌越慢，从冷启动经过预热时间逐步提升到稳定流速，
+ * 适合刚启动的服务或缓存未预热的下游<br/>
+ * 令牌桶状态是不可变对象，由一个原子引用持有，获取令牌以CAS循环更新，不加锁<br/>
+ * 事件循环等不能阻塞的线程可使用{@link #reserve(int)}或{@link #acquireAsync(int)}，等待期间不占用线程<br/>
+ * 计时和阻塞等待经由{@link Ticker}，可传入{@link FakeTicker}以虚拟时间运行
  *
  * @author wangjianping
  */
-public class RateLimiter {
+public class RateLimiter implements Limiter {
 
     /**
-     * 对象创建时的时间，用于做时间偏差基量
+     * 异步获取令牌的共享定时器
      */
-    private final long offsetNanos;
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "rate-limiter-async");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
-     * 桶中存储的令牌书
+     * 时间源
      */
-    private double storedPermits;
+    private final Ticker ticker;
 
     /**
-     * 桶的最大容量
+     * 对象创建时的时间，用于做时间偏差基量
      */
-    private double maxPermits;
+    private final long offsetNanos;
 
     /**
-     * 稳定生成一张令牌的时间
+     * 令牌桶状态，每次更新替换为新对象
      */
-    private volatile double stableIntervalMicros;
+    private final AtomicReference<State> state = new AtomicReference<>(new State(0.0, 0.0, 0.0, 0L, 0.0, 0.0, 0.0));
 
     /**
-     * 互斥对象
+     * 应对突发流量的时间，默认为1s，maxPermits = maxBurstSeconds * permitsPerSecond <br/>
+     * 使用时可根据实际情况调整，直接影响令牌桶大小
      */
-    private final Object mutex = new Object();
+    private final double maxBurstSeconds;
 
     /**
-     * 下一次可直接获取令牌的时间，可表示过去和将来；<br/>
-     * 表示过去是，说明桶中还有令牌数，而表示将来，说明上一次请求提前预先消费了令牌，下一次请求需要有所等待
+     * 预热时间（微秒），为0时为Bursty实现
      */
-    private long nextFreeTicketMicros = 0L;
+    private final long warmupPeriodMicros;
 
     /**
-     * 应对突发流量的时间，默认为1s，maxPermits = maxBurstSeconds * permitsPerSecond <br/>
-     * 使用时可根据实际情况调整，直接影响令牌桶大小
+     * 冷启动系数，最冷时发放一个令牌的时间为稳定时的coldFactor倍
      */
-    private double maxBurstSeconds = 1.0;
+    private final double coldFactor;
 
     /**
      * 构造函数
@@ -53,9 +64,7 @@ public class RateLimiter {
      * @param permitsPerSecond 流速
      */
     public static RateLimiter create(double permitsPerSecond) {
-        RateLimiter rateLimiter = new RateLimiter();
-        rateLimiter.setRate(permitsPerSecond);
-        return rateLimiter;
+        return create(permitsPerSecond, 1, TimeUnit.SECONDS);
     }
 
     /**
@@ -66,19 +75,76 @@ public class RateLimiter {
      * @param unit maxBurstBuildup时间单位
      */
     public static RateLimiter create(double permitsPerSecond, long maxBurstBuildup, TimeUnit unit) {
+        return create(Ticker.systemTicker(), permitsPerSecond, maxBurstBuildup, unit);
+    }
+
+    /**
+     * 指定时间源
+     *
+     * @param ticker 时间源
+     * @param permitsPerSecond 流速
+     * @param maxBurstBuildup 应对突发流量的时间，maxPermits = maxBurstSeconds * permitsPerSecond
+     * @param unit maxBurstBuildup时间单位
+     */
+    public static RateLimiter create(Ticker ticker, double permitsPerSecond, long maxBurstBuildup, TimeUnit unit) {
         double maxBurstSeconds = unit.toNanos(maxBurstBuildup) / 1E+9;
-        RateLimiter rateLimiter = new RateLimiter(maxBurstSeconds);
+        RateLimiter rateLimiter = new RateLimiter(ticker, maxBurstSeconds, 0L, 0.0);
         rateLimiter.setRate(permitsPerSecond);
         return rateLimiter;
     }
 
-    private RateLimiter() {
-        this.offsetNanos = System.nanoTime();
+    /**
+     * 带预热的限流器，冷启动系数为3
+     *
+     * @param permitsPerSecond 稳定流速
+     * @param warmupPeriod 从最冷到稳定流速的预热时间
+     * @param unit warmupPeriod时间单位
+     */
+    public static RateLimiter createWarmingUp(double permitsPerSecond, long warmupPeriod, TimeUnit unit) {
+        return createWarmingUp(permitsPerSecond, warmupPeriod, unit, 3.0);
+    }
+
+    /**
+     * 带预热的限流器
+     *
+     * @param permitsPerSecond 稳定流速
+     * @param warmupPeriod 从最冷到稳定流速的预热时间
+     * @param unit warmupPeriod时间单位
+     * @param coldFactor 冷启动系数，最冷时发放一个令牌的时间为稳定时的coldFactor倍
+     */
+    public static RateLimiter createWarmingUp(double permitsPerSecond, long warmupPeriod, TimeUnit unit,
+        double coldFactor) {
+        return createWarmingUp(Ticker.systemTicker(), permitsPerSecond, warmupPeriod, unit, coldFactor);
     }
 
-    private RateLimiter(double maxBurstSeconds) {
-        this.offsetNanos = System.nanoTime();
+    /**
+     * 指定时间源的带预热限流器
+     *
+     * @param ticker 时间源
+     * @param permitsPerSecond 稳定流速
+     * @param warmupPeriod 从最冷到稳定流速的预热时间
+     * @param unit warmupPeriod时间单位
+     * @param coldFactor 冷启动系数，最冷时发放一个令牌的时间为稳定时的coldFactor倍
+     */
+    public static RateLimiter createWarmingUp(Ticker ticker, double permitsPerSecond, long warmupPeriod,
+        TimeUnit unit, double coldFactor) {
+        if (warmupPeriod <= 0) {
+            throw new IllegalArgumentException("warmupPeriod must be positive");
+        }
+        if (coldFactor <= 1.0) {
+            throw new IllegalArgumentException("coldFactor must be greater than 1");
+        }
+        RateLimiter rateLimiter = new RateLimiter(ticker, 0.0, unit.toMicros(warmupPeriod), coldFactor);
+        rateLimiter.setRate(permitsPerSecond);
+        return rateLimiter;
+    }
+
+    private RateLimiter(Ticker ticker, double maxBurstSeconds, long warmupPeriodMicros, double coldFactor) {
+        this.ticker = ticker;
+        this.offsetNanos = ticker.read();
         this.maxBurstSeconds = maxBurstSeconds;
+        this.warmupPeriodMicros = warmupPeriodMicros;
+        this.coldFactor = coldFactor;
     }
 
     /**
@@ -88,28 +154,56 @@ public class RateLimiter {
         if (permitsPerSecond <= 0.0 || Double.isNaN(permitsPerSecond)) {
             throw new IllegalArgumentException("rate must be positive");
         }
-        synchronized (mutex) {
-            resync(readSafeMicros());
-            this.stableIntervalMicros = TimeUnit.SECONDS.toMicros(1L) / permitsPerSecond;
-
-            // 修改流速时，按比例调整存储令牌数
-            double oldMaxPermits = this.maxPermits;
+        double stableIntervalMicros = TimeUnit.SECONDS.toMicros(1L) / permitsPerSecond;
+        double maxPermits;
+        double thresholdPermits;
+        double slope;
+        double coolDownIntervalMicros;
+        if (warmupPeriodMicros > 0) {
+            // 存储令牌在阈值以下时按稳定流速发放，阈值到最大容量之间发放间隔从稳定间隔线性增加到冷启动间隔，
+            // 这一段梯形面积即预热时间
+            double coldIntervalMicros = stableIntervalMicros * coldFactor;
+            thresholdPermits = 0.5 * warmupPeriodMicros / stableIntervalMicros;
+            maxPermits = thresholdPermits + 2.0 * warmupPeriodMicros / (stableIntervalMicros + coldIntervalMicros);
+            slope = (coldIntervalMicros - stableIntervalMicros) / (maxPermits - thresholdPermits);
+            // 空闲时经过预热时间恢复到最冷
+            coolDownIntervalMicros = warmupPeriodMicros / maxPermits;
+        } else {
             maxPermits = maxBurstSeconds * permitsPerSecond;
-            storedPermits = (oldMaxPermits == 0.0) ? 0.0
-                : storedPermits * maxPermits / oldMaxPermits;
+            thresholdPermits = 0.0;
+            slope = 0.0;
+            coolDownIntervalMicros = stableIntervalMicros;
         }
+        long nowMicros = readSafeMicros();
+        State prev;
+        State next;
+        do {
+            prev = state.get();
+            State synced = prev.resync(nowMicros);
+            // 修改流速时，按比例调整存储令牌数；预热模式初始为最冷状态
+            double storedPermits;
+            if (synced.maxPermits == 0.0) {
+                storedPermits = warmupPeriodMicros > 0 ? maxPermits : 0.0;
+            } else {
+                storedPermits = synced.storedPermits * maxPermits / synced.maxPermits;
+            }
+            next = new State(storedPermits, maxPermits, stableIntervalMicros, synced.nextFreeTicketMicros,
+                thresholdPermits, slope, coolDownIntervalMicros);
+        } while (!state.compareAndSet(prev, next));
     }
 
     /**
      * 获取流速
      */
+    @Override
     public final double getRate() {
-        return TimeUnit.SECONDS.toMicros(1L) / stableIntervalMicros;
+        return TimeUnit.SECONDS.toMicros(1L) / state.get().stableIntervalMicros;
     }
 
     /**
      * 获取一个令牌
      */
+    @Override
     public double acquire() {
         return acquire(1);
     }
@@ -117,23 +211,57 @@ public class RateLimiter {
     /**
      * 获取permits个令牌
      */
+    @Override
     public double acquire(int permits) {
         if (permits <= 0) {
             throw new IllegalArgumentException("Requested permits must be positive");
         }
-        long microsToWait;
-        synchronized (mutex) {
-            // 成功获取令牌需要等待的时间
-            microsToWait = reserveNextTicket(permits, readSafeMicros());
-        }
+        // 成功获取令牌需要等待的时间
+        long microsToWait = reserveNextTicket(permits, readSafeMicros(), -1);
         // 阻塞等待
-        sleepMicrosUninterruptibly(microsToWait);
+        ticker.sleepMicrosUninterruptibly(microsToWait);
         return 1.0 * microsToWait / TimeUnit.SECONDS.toMicros(1L);
     }
 
+    /**
+     * 预占permits个令牌，不阻塞
+     *
+     * @return 调用方需要等待的微秒数，等待结束后才可使用令牌
+     */
+    public long reserve(int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("Requested permits must be positive");
+        }
+        return reserveNextTicket(permits, readSafeMicros(), -1);
+    }
+
+    /**
+     * 异步获取一个令牌
+     */
+    public CompletableFuture<Double> acquireAsync() {
+        return acquireAsync(1);
+    }
+
+    /**
+     * 异步获取permits个令牌，等待由共享定时器完成，不占用调用线程
+     *
+     * @return 等待结束时以等待的秒数完成；在共享定时器线程上完成，耗时的后续操作应切换到其他线程执行
+     */
+    public CompletableFuture<Double> acquireAsync(int permits) {
+        long microsToWait = reserve(permits);
+        double seconds = 1.0 * microsToWait / TimeUnit.SECONDS.toMicros(1L);
+        if (microsToWait <= 0) {
+            return CompletableFuture.completedFuture(seconds);
+        }
+        CompletableFuture<Double> future = new CompletableFuture<>();
+        SCHEDULER.schedule(() -> future.complete(seconds), microsToWait, TimeUnit.MICROSECONDS);
+        return future;
+    }
+
     /**
      * 尝试获取一个令牌
      */
+    @Override
     public boolean tryAcquire() {
         return tryAcquire(1, 0, TimeUnit.MICROSECONDS);
     }
@@ -141,6 +269,7 @@ public class RateLimiter {
     /**
      * 尝试获取permits个令牌
      */
+    @Override
     public boolean tryAcquire(int permits) {
         return tryAcquire(permits, 0, TimeUnit.MICROSECONDS);
     }
@@ -148,6 +277,7 @@ public class RateLimiter {
     /**
      * 在超时时间内尝试获取1个令牌
      */
+    @Override
     public boolean tryAcquire(long timeout, TimeUnit unit) {
         return tryAcquire(1, timeout, unit);
     }
@@ -155,97 +285,166 @@ public class RateLimiter {
     /**
      * 在超时时间内尝试获取permits个令牌
      */
+    @Override
     public boolean tryAcquire(int permits, long timeout, TimeUnit unit) {
         long timeoutMicros = unit.toMicros(timeout);
         if (permits <= 0) {
             throw new IllegalArgumentException("Requested permits must be positive");
         }
-        long microsToWait;
-        synchronized (mutex) {
-            // 获取当前的时间偏差
-            long nowMicros = readSafeMicros();
-            // 在超时时间内不会到达下一次时间，也就不会有新的令牌生成
-            if (nextFreeTicketMicros > nowMicros + timeoutMicros) {
-                return false;
-            } else {
-                // 成功获取令牌需要等待的时间
-                microsToWait = reserveNextTicket(permits, nowMicros);
-            }
+        // 成功获取令牌需要等待的时间，超时时间内不会有新的令牌生成时为-1
+        long microsToWait = reserveNextTicket(permits, readSafeMicros(), Math.max(timeoutMicros, 0));
+        if (microsToWait < 0) {
+            return false;
         }
         // 阻塞等待
-        sleepMicrosUninterruptibly(microsToWait);
+        ticker.sleepMicrosUninterruptibly(microsToWait);
         return true;
     }
 
     /**
-     * 获取需要等待的时间，并更新桶模拟计数
+     * 获取需要等待的时间，并以CAS更新桶模拟计数
      * 
      * @param requiredPermits 需要的令牌数
      * @param nowMicros 当前时间偏差
+     * @param timeoutMicros 超时时间，小于0为不限制
+     * @return 需要等待的时间，超时时间内不会到达下一次时间时返回-1
      */
-    private long reserveNextTicket(double requiredPermits, long nowMicros) {
-        resync(nowMicros);
-        // 如果是过去时间，因为上面刚同步过，肯定为0，不需要等待；主要针对下一次是未来时间
-        long microsToNextFreeTicket = nextFreeTicketMicros - nowMicros;
-        // 存储的令牌有多少被使用
-        double storedPermitsToSpend = Math.min(requiredPermits, this.storedPermits);
-        // 需要等待新生成的令牌数（这里的等待其实是再还上一次预支的令牌，本次的预支不需要等待，留给一次再还）
-        double freshPermits = requiredPermits - storedPermitsToSpend;
+    private long reserveNextTicket(double requiredPermits, long nowMicros, long timeoutMicros) {
+        while (true) {
+            State prev = state.get();
+            // 在超时时间内不会到达下一次时间，也就不会有新的令牌生成
+            if (timeoutMicros >= 0 && prev.nextFreeTicketMicros > nowMicros + timeoutMicros) {
+                return -1;
+            }
+            State synced = prev.resync(nowMicros);
+            // 如果是过去时间，因为上面刚同步过，肯定为0，不需要等待；主要针对下一次是未来时间
+            long microsToNextFreeTicket = synced.nextFreeTicketMicros - nowMicros;
+            // 存储的令牌有多少被使用
+            double storedPermitsToSpend = Math.min(requiredPermits, synced.storedPermits);
+            // 需要等待新生成的令牌数（这里的等待其实是再还上一次预支的令牌，本次的预支不需要等待，留给一次再还）
+            double freshPermits = requiredPermits - storedPermitsToSpend;
 
-        // 以下函数原guava的实现里计算等待会加上，但只针对WarmingUp使用
-        // storedPermitsToWaitTime(this.storedPermits, storedPermitsToSpend)
-        long waitMicros = (long) (freshPermits * stableIntervalMicros);
-        // 更新下一次不需要等待时间
-        this.nextFreeTicketMicros = nextFreeTicketMicros + waitMicros;
-        // 减扣消费的令牌数
-        this.storedPermits -= storedPermitsToSpend;
-        return microsToNextFreeTicket;
+            // 预热模式下消费存储的令牌也需要等待
+            long waitMicros = storedPermitsToWaitTime(synced, storedPermitsToSpend)
+                + (long) (freshPermits * synced.stableIntervalMicros);
+            // 更新下一次不需要等待时间，减扣消费的令牌数
+            State next = synced.with(synced.storedPermits - storedPermitsToSpend,
+                synced.nextFreeTicketMicros + waitMicros);
+            if (state.compareAndSet(prev, next)) {
+                return microsToNextFreeTicket;
+            }
+        }
     }
 
     /**
-     * 同步更新存储的令牌数
+     * 消费存储令牌需要的时间，Bursty实现不需要等待；WarmingUp实现为发放间隔曲线在消费区间上的面积
+     *
+     * @param state 同步后的状态
+     * @param permitsToTake 消费的存储令牌数
      */
-    private void resync(long nowMicros) {
-        if (nowMicros > nextFreeTicketMicros) {
-            // 存储令牌数不能大于最大容量
-            storedPermits = Math.min(maxPermits,
-                storedPermits + (nowMicros - nextFreeTicketMicros) / stableIntervalMicros);
-            // nextFreeTicketMicros为过去时间，更新为当前时间
-            nextFreeTicketMicros = nowMicros;
+    private long storedPermitsToWaitTime(State state, double permitsToTake) {
+        if (warmupPeriodMicros <= 0) {
+            return 0L;
+        }
+        double availablePermitsAboveThreshold = state.storedPermits - state.thresholdPermits;
+        long micros = 0;
+        // 阈值以上的部分按梯形面积计算
+        if (availablePermitsAboveThreshold > 0.0) {
+            double permitsAboveThresholdToTake = Math.min(availablePermitsAboveThreshold, permitsToTake);
+            double length = state.permitsToTime(availablePermitsAboveThreshold)
+                + state.permitsToTime(availablePermitsAboveThreshold - permitsAboveThresholdToTake);
+            micros = (long) (permitsAboveThresholdToTake * length / 2.0);
+            permitsToTake -= permitsAboveThresholdToTake;
         }
+        // 阈值以下的部分按稳定间隔计算
+        micros += (long) (state.stableIntervalMicros * permitsToTake);
+        return micros;
     }
 
     /**
      * 获取当前时间偏差
      */
     private long readSafeMicros() {
-        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - offsetNanos);
-    }
-
-    /**
-     * 阻塞等待实现
-     */
-    private void sleepMicrosUninterruptibly(long micros) {
-        if (micros > 0) {
-            boolean interrupted = false;
-            try {
-                long remainingNanos = TimeUnit.MICROSECONDS.toNanos(micros);
-                long end = System.nanoTime() + remainingNanos;
-                while (true) {
-                    try {
-                        // TimeUnit.sleep() treats negative timeouts just like zero.
-                        NANOSECONDS.sleep(remainingNanos);
-                        return;
-                    } catch (InterruptedException e) {
-                        interrupted = true;
-                        remainingNanos = end - System.nanoTime();
-                    }
-                }
-            } finally {
-                if (interrupted) {
-                    Thread.currentThread().interrupt();
-                }
+        return TimeUnit.NANOSECONDS.toMicros(ticker.read() - offsetNanos);
+    }
+
+    /**
+     * 令牌桶状态，不可变
+     */
+    private static final class State {
+
+        /**
+         * 桶中存储的令牌数
+         */
+        final double storedPermits;
+
+        /**
+         * 桶的最大容量
+         */
+        final double maxPermits;
+
+        /**
+         * 稳定生成一张令牌的时间
+         */
+        final double stableIntervalMicros;
+
+        /**
+         * 下一次可直接获取令牌的时间，可表示过去和将来；<br/>
+         * 表示过去是，说明桶中还有令牌数，而表示将来，说明上一次请求提前预先消费了令牌，下一次请求需要有所等待
+         */
+        final long nextFreeTicketMicros;
+
+        /**
+         * 预热阈值，存储令牌数超过该值时发放变慢
+         */
+        final double thresholdPermits;
+
+        /**
+         * 阈值以上发放间隔随存储令牌数增加的斜率
+         */
+        final double slope;
+
+        /**
+         * 空闲时积累一个存储令牌的时间
+         */
+        final double coolDownIntervalMicros;
+
+        State(double storedPermits, double maxPermits, double stableIntervalMicros, long nextFreeTicketMicros,
+            double thresholdPermits, double slope, double coolDownIntervalMicros) {
+            this.storedPermits = storedPermits;
+            this.maxPermits = maxPermits;
+            this.stableIntervalMicros = stableIntervalMicros;
+            this.nextFreeTicketMicros = nextFreeTicketMicros;
+            this.thresholdPermits = thresholdPermits;
+            this.slope = slope;
+            this.coolDownIntervalMicros = coolDownIntervalMicros;
+        }
+
+        /**
+         * 流速参数不变，替换存储令牌数和下一次时间
+         */
+        State with(double storedPermits, long nextFreeTicketMicros) {
+            return new State(storedPermits, maxPermits, stableIntervalMicros, nextFreeTicketMicros,
+                thresholdPermits, slope, coolDownIntervalMicros);
+        }
+
+        /**
+         * 存储令牌数为permits（阈值以上部分）时发放一个令牌的间隔
+         */
+        double permitsToTime(double permits) {
+            return stableIntervalMicros + permits * slope;
+        }
+
+        /**
+         * 同步更新存储的令牌数，返回同步后的状态
+         */
+        State resync(long nowMicros) {
+            if (nowMicros > nextFreeTicketMicros) {
+                // 存储令牌数不能大于最大容量，nextFreeTicketMicros为过去时间，更新为当前时间
+                return with(Math.min(maxPermits,
+                    storedPermits + (nowMicros - nextFreeTicketMicros) / coolDownIntervalMicros), nowMicros);
             }
+            return this;
         }
     }
 }
@@ -0,0 +1,160 @@
+package com.eveow.wtools.redis.common;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分布式GCRA限流，算法与{@link GcraLimiter}相同，每个限流器在redis中只存一个理论到达时间（微秒）的字符串，
+ * 一次脚本调用完成判断和更新；时间取redis的TIME，TAT过去后key自动过期，key不存在时按空闲处理
+ *
+ * @author wangjianping
+ */
+public class RedisGcraLimiter implements Limiter {
+
+    /**
+     * 推后TAT脚本，ARGV[1]令牌数，ARGV[2]发放间隔（微秒），ARGV[3]容忍度（微秒），ARGV[4]超时时间（微秒，-1为不限制）；
+     * 返回需要等待的微秒数，超时时间内无法获取时返回-1且不更新
+     *
+     * <pre>
+     *  redis.replicate_commands();
+     *  local time = redis.call('time');
+     *  local now = tonumber(time[1]) * 1000000 + tonumber(time[2]);
+     *  local tat = tonumber(redis.call('get', KEYS[1]));
+     *  if (tat == nil) or (tat < now) then
+     *      tat = now;
+     *  end;
+     *  local newTat = tat + tonumber(ARGV[1]) * tonumber(ARGV[2]);
+     *  local wait = math.max(newTat - tonumber(ARGV[3]) - now, 0);
+     *  local timeout = tonumber(ARGV[4]);
+     *  if (timeout >= 0) and (wait > timeout) then
+     *      return -1;
+     *  end;
+     *  redis.call('set', KEYS[1], string.format('%.0f', newTat), 'px', math.ceil((newTat - now) / 1000) + 1);
+     *  return math.floor(wait);
+     * </pre>
+     */
+    private static final LuaScript RESERVE_SCRIPT = new LuaScript("redis.replicate_commands(); local time = redis.call('time'); local now = tonumber(time[1]) * 1000000 + tonumber(time[2]); local tat = tonumber(redis.call('get', KEYS[1])); if (tat == nil) or (tat < now) then tat = now; end; local newTat = tat + tonumber(ARGV[1]) * tonumber(ARGV[2]); local wait = math.max(newTat - tonumber(ARGV[3]) - now, 0); local timeout = tonumber(ARGV[4]); if (timeout >= 0) and (wait > timeout) then return -1; end; redis.call('set', KEYS[1], string.format('%.0f', newTat), 'px', math.ceil((newTat - now) / 1000) + 1); return math.floor(wait);");
+
+    /**
+     * 不限制等待时间
+     */
+    private static final long NO_TIMEOUT = -1L;
+
+    /**
+     * spring redis的连接池
+     */
+    private final RedisConnectionFactory factory;
+
+    /**
+     * 编码后的限流器名称
+     */
+    private final byte[] nameBytes;
+
+    /**
+     * 流速，各节点应设置相同的流速
+     */
+    private final double permitsPerSecond;
+
+    /**
+     * 编码后的发放间隔（微秒）
+     */
+    private final byte[] intervalBytes;
+
+    /**
+     * 编码后的容忍度（微秒）
+     */
+    private final byte[] toleranceBytes;
+
+    /**
+     * 构造函数
+     *
+     * @param factory spring redis的连接池
+     * @param name 限流器名称，即redis中的key
+     * @param permitsPerSecond 全局流速
+     */
+    public static RedisGcraLimiter create(RedisConnectionFactory factory, String name, double permitsPerSecond) {
+        return create(factory, name, permitsPerSecond, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 可指定允许的突发时间
+     *
+     * @param factory spring redis的连接池
+     * @param name 限流器名称，即redis中的key
+     * @param permitsPerSecond 全局流速
+     * @param maxBurstBuildup 应对突发流量的时间，默认为1s
+     * @param unit maxBurstBuildup时间单位
+     */
+    public static RedisGcraLimiter create(RedisConnectionFactory factory, String name, double permitsPerSecond,
+        long maxBurstBuildup, TimeUnit unit) {
+        if (permitsPerSecond <= 0.0 || Double.isNaN(permitsPerSecond)) {
+            throw new IllegalArgumentException("rate must be positive");
+        }
+        return new RedisGcraLimiter(factory, name, permitsPerSecond, unit.toMicros(maxBurstBuildup));
+    }
+
+    private RedisGcraLimiter(RedisConnectionFactory factory, String name, double permitsPerSecond,
+        long toleranceMicros) {
+        this.factory = factory;
+        this.nameBytes = ScriptArgs.encode(name);
+        this.permitsPerSecond = permitsPerSecond;
+        this.intervalBytes = ScriptArgs.encode(String.valueOf(TimeUnit.SECONDS.toMicros(1L) / permitsPerSecond));
+        this.toleranceBytes = ScriptArgs.encode(toleranceMicros);
+    }
+
+    @Override
+    public double acquire(int permits) {
+        checkPermits(permits);
+        long microsToWait = reserve(permits, NO_TIMEOUT);
+        Ticker.systemTicker().sleepMicrosUninterruptibly(microsToWait);
+        return 1.0 * microsToWait / TimeUnit.SECONDS.toMicros(1L);
+    }
+
+    @Override
+    public boolean tryAcquire(int permits, long timeout, TimeUnit unit) {
+        checkPermits(permits);
+        long microsToWait = reserve(permits, Math.max(unit.toMicros(timeout), 0));
+        if (microsToWait < 0) {
+            return false;
+        }
+        Ticker.systemTicker().sleepMicrosUninterruptibly(microsToWait);
+        return true;
+    }
+
+    @Override
+    public final double getRate() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * 在redis中推后TAT
+     *
+     * @param permits 需要的令牌数
+     * @param timeoutMicros 超时时间，-1为不限制
+     * @return 需要等待的微秒数，超时时间内无法获取时返回-1
+     */
+    private long reserve(int permits, long timeoutMicros) {
+        RedisConnection connection = factory.getConnection();
+        try {
+            byte[][] args = ScriptArgs.args(5);
+            args[0] = nameBytes;
+            args[1] = ScriptArgs.encode(permits);
+            args[2] = intervalBytes;
+            args[3] = toleranceBytes;
+            args[4] = ScriptArgs.encode(timeoutMicros);
+            Long microsToWait = RESERVE_SCRIPT.eval(connection, ReturnType.INTEGER, 1, args);
+            return microsToWait == null ? 0 : microsToWait;
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static void checkPermits(int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("Requested permits must be positive");
+        }
+    }
+}
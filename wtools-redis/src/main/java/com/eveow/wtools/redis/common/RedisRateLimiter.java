@@ -0,0 +1,547 @@
+package com.eveow.wtools.redis.common;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分布式限流工具类，算法与{@link RateLimiter}相同，令牌桶状态存放在redis的一个hash中，所有节点共享同一流速<br/>
+ * hash字段：sp存储的令牌数，mp桶的最大容量，nf下一次可直接获取令牌的时间（微秒），si稳定生成一张令牌的时间（微秒）；
+ * 时间取redis的TIME，不依赖各节点的时钟。桶空闲到装满后key自动过期，key不存在时按满桶处理<br/>
+ * 开启租借模式（{@link #setLeasing(long, TimeUnit)}）后，节点按近期消耗速度从桶中批量租借令牌在本地发放，
+ * 多数获取不再访问redis；租期到期或{@link #close()}时把未用完的令牌归还到桶中。
+ * 同一时刻只有一个线程向redis补充租借，redis调用不持有本地锁，其他线程继续消耗当前租借的令牌或等待补充完成
+ *
+ * @author wangjianping
+ */
+public class RedisRateLimiter implements Limiter, AutoCloseable {
+
+    /**
+     * 预占令牌脚本，返回需要等待的微秒数，超时时间内无法获取时返回-1
+     *
+     * <pre>
+     *  redis.replicate_commands();
+     *  local time = redis.call('time');
+     *  local now = tonumber(time[1]) * 1000000 + tonumber(time[2]);
+     *  local rate = tonumber(ARGV[3]);
+     *  local si = 1000000 / rate;
+     *  local mp = tonumber(ARGV[4]) * rate;
+     *  local state = redis.call('hmget', KEYS[1], 'sp', 'mp', 'nf', 'si');
+     *  local sp = tonumber(state[1]);
+     *  local nf = tonumber(state[3]);
+     *  if (sp == nil) or (nf == nil) then
+     *      sp = mp;
+     *      nf = now;
+     *  else
+     *      local oldMp = tonumber(state[2]);
+     *      if (now > nf) then
+     *          sp = math.min(oldMp, sp + (now - nf) / tonumber(state[4]));
+     *          nf = now;
+     *      end;
+     *      if (oldMp ~= mp) then
+     *          sp = (oldMp == 0) and 0 or sp * mp / oldMp;
+     *      end;
+     *  end;
+     *  local timeout = tonumber(ARGV[2]);
+     *  if (timeout >= 0) and (nf > now + timeout) then
+     *      return -1;
+     *  end;
+     *  local wait = nf - now;
+     *  local rp = tonumber(ARGV[1]);
+     *  local spend = math.min(rp, sp);
+     *  nf = nf + (rp - spend) * si;
+     *  sp = sp - spend;
+     *  redis.call('hmset', KEYS[1], 'sp', sp, 'mp', mp, 'nf', string.format('%.0f', nf), 'si', si);
+     *  redis.call('pexpire', KEYS[1], math.ceil((nf - now + (mp - sp) * si) / 1000) + 1000);
+     *  return wait;
+     * </pre>
+     */
+    private static final LuaScript RESERVE_SCRIPT = new LuaScript("redis.replicate_commands(); local time = redis.call('time'); local now = tonumber(time[1]) * 1000000 + tonumber(time[2]); local rate = tonumber(ARGV[3]); local si = 1000000 / rate; local mp = tonumber(ARGV[4]) * rate; local state = redis.call('hmget', KEYS[1], 'sp', 'mp', 'nf', 'si'); local sp = tonumber(state[1]); local nf = tonumber(state[3]); if (sp == nil) or (nf == nil) then sp = mp; nf = now; else local oldMp = tonumber(state[2]); if (now > nf) then sp = math.min(oldMp, sp + (now - nf) / tonumber(state[4])); nf = now; end; if (oldMp ~= mp) then sp = (oldMp == 0) and 0 or sp * mp / oldMp; end; end; local timeout = tonumber(ARGV[2]); if (timeout >= 0) and (nf > now + timeout) then return -1; end; local wait = nf - now; local rp = tonumber(ARGV[1]); local spend = math.min(rp, sp); nf = nf + (rp - spend) * si; sp = sp - spend; redis.call('hmset', KEYS[1], 'sp', sp, 'mp', mp, 'nf', string.format('%.0f', nf), 'si', si); redis.call('pexpire', KEYS[1], math.ceil((nf - now + (mp - sp) * si) / 1000) + 1000); return wait;");
+
+    /**
+     * 租借令牌脚本，先归还ARGV[3]个令牌，存储的令牌够ARGV[1]个时最多取出ARGV[2]个，
+     * 不够时与预占脚本相同地预支ARGV[1]个令牌；返回{取得的令牌数, 需要等待的微秒数}，超时时间内无法获取时返回{0, -1}
+     *
+     * <pre>
+     *  redis.replicate_commands();
+     *  local time = redis.call('time');
+     *  local now = tonumber(time[1]) * 1000000 + tonumber(time[2]);
+     *  local rate = tonumber(ARGV[5]);
+     *  local si = 1000000 / rate;
+     *  local mp = tonumber(ARGV[6]) * rate;
+     *  local state = redis.call('hmget', KEYS[1], 'sp', 'mp', 'nf', 'si');
+     *  local sp = tonumber(state[1]);
+     *  local nf = tonumber(state[3]);
+     *  if (sp == nil) or (nf == nil) then
+     *      sp = mp;
+     *      nf = now;
+     *  else
+     *      local oldMp = tonumber(state[2]);
+     *      if (now > nf) then
+     *          sp = math.min(oldMp, sp + (now - nf) / tonumber(state[4]));
+     *          nf = now;
+     *      end;
+     *      if (oldMp ~= mp) then
+     *          sp = (oldMp == 0) and 0 or sp * mp / oldMp;
+     *      end;
+     *  end;
+     *  sp = math.min(mp, sp + tonumber(ARGV[3]));
+     *  local rp = tonumber(ARGV[1]);
+     *  local take = math.min(tonumber(ARGV[2]), math.floor(sp));
+     *  local result;
+     *  if (take >= rp) then
+     *      sp = sp - take;
+     *      result = {take, 0};
+     *  else
+     *      local timeout = tonumber(ARGV[4]);
+     *      if (timeout >= 0) and (nf > now + timeout) then
+     *          result = {0, -1};
+     *      else
+     *          result = {rp, math.floor(nf - now)};
+     *          local spend = math.min(rp, sp);
+     *          nf = nf + (rp - spend) * si;
+     *          sp = sp - spend;
+     *      end;
+     *  end;
+     *  redis.call('hmset', KEYS[1], 'sp', sp, 'mp', mp, 'nf', string.format('%.0f', nf), 'si', si);
+     *  redis.call('pexpire', KEYS[1], math.ceil((nf - now + (mp - sp) * si) / 1000) + 1000);
+     *  return result;
+     * </pre>
+     */
+    private static final LuaScript LEASE_SCRIPT = new LuaScript("redis.replicate_commands(); local time = redis.call('time'); local now = tonumber(time[1]) * 1000000 + tonumber(time[2]); local rate = tonumber(ARGV[5]); local si = 1000000 / rate; local mp = tonumber(ARGV[6]) * rate; local state = redis.call('hmget', KEYS[1], 'sp', 'mp', 'nf', 'si'); local sp = tonumber(state[1]); local nf = tonumber(state[3]); if (sp == nil) or (nf == nil) then sp = mp; nf = now; else local oldMp = tonumber(state[2]); if (now > nf) then sp = math.min(oldMp, sp + (now - nf) / tonumber(state[4])); nf = now; end; if (oldMp ~= mp) then sp = (oldMp == 0) and 0 or sp * mp / oldMp; end; end; sp = math.min(mp, sp + tonumber(ARGV[3])); local rp = tonumber(ARGV[1]); local take = math.min(tonumber(ARGV[2]), math.floor(sp)); local result; if (take >= rp) then sp = sp - take; result = {take, 0}; else local timeout = tonumber(ARGV[4]); if (timeout >= 0) and (nf > now + timeout) then result = {0, -1}; else result = {rp, math.floor(nf - now)}; local spend = math.min(rp, sp); nf = nf + (rp - spend) * si; sp = sp - spend; end; end; redis.call('hmset', KEYS[1], 'sp', sp, 'mp', mp, 'nf', string.format('%.0f', nf), 'si', si); redis.call('pexpire', KEYS[1], math.ceil((nf - now + (mp - sp) * si) / 1000) + 1000); return result;");
+
+    /**
+     * 租期到期归还令牌的定时器
+     */
+    private static final ScheduledExecutorService LEASE_SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "redis-limiter-lease");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 消耗速度估算的平滑系数
+     */
+    private static final double RATE_SMOOTHING = 0.5;
+
+    /**
+     * 不限制等待时间
+     */
+    private static final long NO_TIMEOUT = -1L;
+
+    /**
+     * spring redis的连接池
+     */
+    private final RedisConnectionFactory factory;
+
+    /**
+     * 编码后的限流器名称
+     */
+    private final byte[] nameBytes;
+
+    /**
+     * 应对突发流量的时间，默认为1s，maxPermits = maxBurstSeconds * permitsPerSecond
+     */
+    private final double maxBurstSeconds;
+
+    /**
+     * 编码后的突发时间
+     */
+    private final byte[] maxBurstBytes;
+
+    /**
+     * 流速，每次调用随脚本传给redis，各节点应设置相同的流速
+     */
+    private volatile double permitsPerSecond;
+
+    /**
+     * 编码后的流速
+     */
+    private volatile byte[] rateBytes;
+
+    /**
+     * 互斥对象，保护以下租借状态，持有期间不访问redis
+     */
+    private final Object mutex = new Object();
+
+    /**
+     * 租期（纳秒），0为不租借
+     */
+    private volatile long leaseNanos;
+
+    /**
+     * 本地剩余的租借令牌数
+     */
+    private long leasedPermits;
+
+    /**
+     * 当前租借的到期时间
+     */
+    private long leaseDeadline;
+
+    /**
+     * 当前租借的到期归还任务
+     */
+    private ScheduledFuture<?> leaseExpiry;
+
+    /**
+     * 进行中的补充租借，没有时为null
+     */
+    private CompletableFuture<Void> refill;
+
+    /**
+     * 上一次租借以来本地发放的令牌数
+     */
+    private long consumed;
+
+    /**
+     * 上一次租借的时间
+     */
+    private long lastLeaseNanos;
+
+    /**
+     * 估算的本地消耗速度（每秒令牌数）
+     */
+    private double consumeRate;
+
+    /**
+     * 构造函数
+     *
+     * @param factory spring redis的连接池
+     * @param name 限流器名称，即redis中的key
+     * @param permitsPerSecond 全局流速
+     */
+    public static RedisRateLimiter create(RedisConnectionFactory factory, String name, double permitsPerSecond) {
+        return create(factory, name, permitsPerSecond, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 可指定允许的突发时间
+     *
+     * @param factory spring redis的连接池
+     * @param name 限流器名称，即redis中的key
+     * @param permitsPerSecond 全局流速
+     * @param maxBurstBuildup 应对突发流量的时间，默认为1s，maxPermits = maxBurstSeconds * permitsPerSecond
+     * @param unit maxBurstBuildup时间单位
+     */
+    public static RedisRateLimiter create(RedisConnectionFactory factory, String name, double permitsPerSecond,
+        long maxBurstBuildup, TimeUnit unit) {
+        double maxBurstSeconds = unit.toNanos(maxBurstBuildup) / 1E+9;
+        RedisRateLimiter rateLimiter = new RedisRateLimiter(factory, name, maxBurstSeconds);
+        rateLimiter.setRate(permitsPerSecond);
+        return rateLimiter;
+    }
+
+    private RedisRateLimiter(RedisConnectionFactory factory, String name, double maxBurstSeconds) {
+        this.factory = factory;
+        this.nameBytes = ScriptArgs.encode(name);
+        this.maxBurstSeconds = maxBurstSeconds;
+        this.maxBurstBytes = ScriptArgs.encode(String.valueOf(maxBurstSeconds));
+    }
+
+    /**
+     * 动态调整流速（每秒生成令牌数），下一次获取令牌时生效，存储的令牌数按比例调整
+     */
+    public final void setRate(double permitsPerSecond) {
+        if (permitsPerSecond <= 0.0 || Double.isNaN(permitsPerSecond)) {
+            throw new IllegalArgumentException("rate must be positive");
+        }
+        this.rateBytes = ScriptArgs.encode(String.valueOf(permitsPerSecond));
+        this.permitsPerSecond = permitsPerSecond;
+    }
+
+    /**
+     * 获取流速
+     */
+    @Override
+    public final double getRate() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * 应对突发流量的时间（秒）
+     */
+    public double getMaxBurstSeconds() {
+        return maxBurstSeconds;
+    }
+
+    /**
+     * 开启租借模式，每次从redis租借约一个租期内本地消耗的令牌数，最多为一个租期内全局生成的令牌数
+     *
+     * @param leaseTime 租期，租期内未用完的令牌到期后归还，小于等于0时关闭租借模式
+     * @param unit
+     */
+    public void setLeasing(long leaseTime, TimeUnit unit) {
+        long returned;
+        synchronized (mutex) {
+            returned = takeLeased();
+            this.leaseNanos = leaseTime > 0 ? unit.toNanos(leaseTime) : 0;
+            this.consumed = 0;
+            this.consumeRate = 0;
+            this.lastLeaseNanos = System.nanoTime();
+        }
+        returnLeased(returned);
+    }
+
+    /**
+     * 归还本地未用完的租借令牌
+     */
+    @Override
+    public void close() {
+        long returned;
+        synchronized (mutex) {
+            returned = takeLeased();
+        }
+        returnLeased(returned);
+    }
+
+    /**
+     * 获取一个令牌
+     */
+    @Override
+    public double acquire() {
+        return acquire(1);
+    }
+
+    /**
+     * 获取permits个令牌
+     *
+     * @return 等待的秒数
+     */
+    @Override
+    public double acquire(int permits) {
+        checkPermits(permits);
+        // 成功获取令牌需要等待的时间
+        long microsToWait = leaseNanos > 0 ? lease(permits, NO_TIMEOUT) : reserve(permits, NO_TIMEOUT);
+        // 阻塞等待
+        Ticker.systemTicker().sleepMicrosUninterruptibly(microsToWait);
+        return 1.0 * microsToWait / TimeUnit.SECONDS.toMicros(1L);
+    }
+
+    /**
+     * 尝试获取一个令牌
+     */
+    @Override
+    public boolean tryAcquire() {
+        return tryAcquire(1, 0, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * 尝试获取permits个令牌
+     */
+    @Override
+    public boolean tryAcquire(int permits) {
+        return tryAcquire(permits, 0, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * 在超时时间内尝试获取1个令牌
+     */
+    @Override
+    public boolean tryAcquire(long timeout, TimeUnit unit) {
+        return tryAcquire(1, timeout, unit);
+    }
+
+    /**
+     * 在超时时间内尝试获取permits个令牌
+     */
+    @Override
+    public boolean tryAcquire(int permits, long timeout, TimeUnit unit) {
+        checkPermits(permits);
+        long timeoutMicros = Math.max(unit.toMicros(timeout), 0);
+        long microsToWait = leaseNanos > 0 ? lease(permits, timeoutMicros) : reserve(permits, timeoutMicros);
+        // 在超时时间内不会有新的令牌生成
+        if (microsToWait < 0) {
+            return false;
+        }
+        // 阻塞等待
+        Ticker.systemTicker().sleepMicrosUninterruptibly(microsToWait);
+        return true;
+    }
+
+    /**
+     * 在redis中预占令牌
+     *
+     * @param permits 需要的令牌数
+     * @param timeoutMicros 超时时间，-1为不限制
+     * @return 需要等待的微秒数，超时时间内无法获取时返回-1
+     */
+    private long reserve(int permits, long timeoutMicros) {
+        RedisConnection connection = factory.getConnection();
+        try {
+            byte[][] args = ScriptArgs.args(5);
+            args[0] = nameBytes;
+            args[1] = ScriptArgs.encode(permits);
+            args[2] = ScriptArgs.encode(timeoutMicros);
+            args[3] = rateBytes;
+            args[4] = maxBurstBytes;
+            Long microsToWait = RESERVE_SCRIPT.eval(connection, ReturnType.INTEGER, 1, args);
+            return microsToWait == null ? 0 : microsToWait;
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * 优先从本地租借的令牌中获取，不足时由一个线程从redis补充租借，其他线程等待补充完成后重新获取
+     *
+     * @param permits 需要的令牌数
+     * @param timeoutMicros 超时时间，-1为不限制
+     * @return 需要等待的微秒数，超时时间内无法获取时返回-1
+     */
+    private long lease(int permits, long timeoutMicros) {
+        while (true) {
+            CompletableFuture<Void> inFlight;
+            CompletableFuture<Void> done = null;
+            long now;
+            long batch = 0;
+            long returned = 0;
+            synchronized (mutex) {
+                now = System.nanoTime();
+                boolean valid = now - leaseDeadline < 0;
+                if (leasedPermits >= permits && valid) {
+                    leasedPermits -= permits;
+                    consumed += permits;
+                    return 0;
+                }
+                if (leaseNanos <= 0) {
+                    // 租借模式已关闭
+                    inFlight = null;
+                } else if (refill != null) {
+                    inFlight = refill;
+                } else {
+                    // 按上一租期的消耗速度估算本次租借数
+                    double elapsedSeconds = Math.max(now - lastLeaseNanos, 1) / 1E+9;
+                    double sample = consumed / elapsedSeconds;
+                    consumeRate = consumeRate == 0 ? sample
+                        : consumeRate * RATE_SMOOTHING + sample * (1 - RATE_SMOOTHING);
+                    double leaseSeconds = leaseNanos / 1E+9;
+                    long maxBatch = Math.max(1, (long) Math.ceil(permitsPerSecond * leaseSeconds));
+                    batch = Math.max(permits, Math.min(maxBatch, (long) Math.ceil(consumeRate * leaseSeconds)));
+                    // 补充期间其他线程的消耗计入下一次采样
+                    lastLeaseNanos = now;
+                    consumed = 0;
+                    // 已过期的剩余令牌随本次请求一起归还，未过期的留给其他线程继续消耗
+                    if (!valid) {
+                        returned = takeLeased();
+                    }
+                    done = new CompletableFuture<>();
+                    refill = done;
+                    inFlight = null;
+                }
+            }
+            if (done != null) {
+                return refill(done, permits, batch, returned, timeoutMicros, now);
+            }
+            if (inFlight == null) {
+                return reserve(permits, timeoutMicros);
+            }
+            // 等待其他线程的补充租借完成后重新获取
+            inFlight.handle((r, e) -> null).join();
+        }
+    }
+
+    /**
+     * 向redis补充租借，不持有mutex；完成后合并到本地租借并唤醒等待补充的线程
+     */
+    private long refill(CompletableFuture<Void> done, int permits, long batch, long returned, long timeoutMicros,
+        long now) {
+        try {
+            List<Object> result = evalLease(permits, batch, returned, timeoutMicros);
+            long granted = (Long) result.get(0);
+            long microsToWait = (Long) result.get(1);
+            synchronized (mutex) {
+                if (microsToWait < 0) {
+                    return -1;
+                }
+                consumed += permits;
+                leasedPermits += granted - permits;
+                if (leasedPermits > 0) {
+                    if (leaseExpiry != null) {
+                        leaseExpiry.cancel(false);
+                    }
+                    leaseDeadline = now + leaseNanos;
+                    leaseExpiry = LEASE_SCHEDULER.schedule(this::expire, leaseNanos, TimeUnit.NANOSECONDS);
+                }
+                return microsToWait;
+            }
+        } finally {
+            synchronized (mutex) {
+                refill = null;
+            }
+            done.complete(null);
+        }
+    }
+
+    /**
+     * 租期到期，归还剩余令牌；期间已重新租借时不处理
+     */
+    private void expire() {
+        long returned = 0;
+        synchronized (mutex) {
+            if (System.nanoTime() - leaseDeadline >= 0) {
+                returned = takeLeased();
+            }
+        }
+        returnLeased(returned);
+    }
+
+    /**
+     * 取出本地剩余的租借令牌并取消到期任务，调用方持有mutex
+     *
+     * @return 需要归还的令牌数
+     */
+    private long takeLeased() {
+        if (leaseExpiry != null) {
+            leaseExpiry.cancel(false);
+            leaseExpiry = null;
+        }
+        long returned = leasedPermits;
+        leasedPermits = 0;
+        return returned;
+    }
+
+    /**
+     * 把令牌归还到redis的桶中，调用方不持有mutex
+     */
+    private void returnLeased(long returned) {
+        if (returned > 0) {
+            evalLease(0, 0, returned, NO_TIMEOUT);
+        }
+    }
+
+    /**
+     * 执行租借脚本
+     *
+     * @return 取得的令牌数和需要等待的微秒数
+     */
+    private List<Object> evalLease(long permits, long batch, long returned, long timeoutMicros) {
+        RedisConnection connection = factory.getConnection();
+        try {
+            byte[][] args = ScriptArgs.args(7);
+            args[0] = nameBytes;
+            args[1] = ScriptArgs.encode(permits);
+            args[2] = ScriptArgs.encode(batch);
+            args[3] = ScriptArgs.encode(returned);
+            args[4] = ScriptArgs.encode(timeoutMicros);
+            args[5] = rateBytes;
+            args[6] = maxBurstBytes;
+            return LEASE_SCRIPT.eval(connection, ReturnType.MULTI, 1, args);
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static void checkPermits(int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("Requested permits must be positive");
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.eveow.wtools.redis.common;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分布式滑动窗口计数限流，算法与{@link SlidingWindowLimiter}相同，计数存放在redis的一个hash中<br/>
+ * hash字段：ws当前窗口的开始时间（微秒），c当前窗口计数，p上一个窗口计数；窗口按redis的TIME对齐，所有节点一致，
+ * 两个窗口长度内无请求时key自动过期<br/>
+ * 与{@link SlidingWindowLimiter}一样是近似限流，假设上一个窗口内的请求均匀分布，请求集中在窗口边界时，
+ * 任意窗口长度内通过的令牌数可能超过limit
+ *
+ * @author wangjianping
+ */
+public class RedisSlidingWindowLimiter implements Limiter {
+
+    /**
+     * 计数脚本，ARGV[1]令牌数，ARGV[2]窗口长度（微秒），ARGV[3]窗口内允许通过的令牌数，ARGV[4]超时时间（微秒，-1为不限制）；
+     * 获取成功返回0，否则返回没有新请求时需要等待的微秒数，超过超时时间时返回-1
+     *
+     * <pre>
+     *  redis.replicate_commands();
+     *  local time = redis.call('time');
+     *  local now = tonumber(time[1]) * 1000000 + tonumber(time[2]);
+     *  local rp = tonumber(ARGV[1]);
+     *  local window = tonumber(ARGV[2]);
+     *  local limit = tonumber(ARGV[3]);
+     *  local start = now - now % window;
+     *  local state = redis.call('hmget', KEYS[1], 'ws', 'c', 'p');
+     *  local ws = tonumber(state[1]);
+     *  local c = tonumber(state[2]) or 0;
+     *  local p = tonumber(state[3]) or 0;
+     *  if (ws ~= start) then
+     *      if (ws ~= nil) and (start - ws == window) then
+     *          p = c;
+     *      else
+     *          p = 0;
+     *      end;
+     *      c = 0;
+     *  end;
+     *  local elapsed = now - start;
+     *  if (p * (window - elapsed) / window + c + rp <= limit) then
+     *      redis.call('hmset', KEYS[1], 'ws', string.format('%.0f', start), 'c', c + rp, 'p', p);
+     *      redis.call('pexpire', KEYS[1], math.ceil(window * 2 / 1000));
+     *      return 0;
+     *  end;
+     *  local free = limit - c - rp;
+     *  local wait;
+     *  if (free >= 0) then
+     *      wait = math.ceil(window - free * window / p) - elapsed;
+     *  else
+     *      wait = window - elapsed + math.ceil(window - (limit - rp) * window / c);
+     *  end;
+     *  wait = math.max(wait, 1);
+     *  local timeout = tonumber(ARGV[4]);
+     *  if (timeout >= 0) and (wait > timeout) then
+     *      return -1;
+     *  end;
+     *  return wait;
+     * </pre>
+     */
+    private static final LuaScript ACQUIRE_SCRIPT = new LuaScript("redis.replicate_commands(); local time = redis.call('time'); local now = tonumber(time[1]) * 1000000 + tonumber(time[2]); local rp = tonumber(ARGV[1]); local window = tonumber(ARGV[2]); local limit = tonumber(ARGV[3]); local start = now - now % window; local state = redis.call('hmget', KEYS[1], 'ws', 'c', 'p'); local ws = tonumber(state[1]); local c = tonumber(state[2]) or 0; local p = tonumber(state[3]) or 0; if (ws ~= start) then if (ws ~= nil) and (start - ws == window) then p = c; else p = 0; end; c = 0; end; local elapsed = now - start; if (p * (window - elapsed) / window + c + rp <= limit) then redis.call('hmset', KEYS[1], 'ws', string.format('%.0f', start), 'c', c + rp, 'p', p); redis.call('pexpire', KEYS[1], math.ceil(window * 2 / 1000)); return 0; end; local free = limit - c - rp; local wait; if (free >= 0) then wait = math.ceil(window - free * window / p) - elapsed; else wait = window - elapsed + math.ceil(window - (limit - rp) * window / c); end; wait = math.max(wait, 1); local timeout = tonumber(ARGV[4]); if (timeout >= 0) and (wait > timeout) then return -1; end; return wait;");
+
+    /**
+     * 不限制等待时间
+     */
+    private static final long NO_TIMEOUT = -1L;
+
+    /**
+     * spring redis的连接池
+     */
+    private final RedisConnectionFactory factory;
+
+    /**
+     * 编码后的限流器名称
+     */
+    private final byte[] nameBytes;
+
+    /**
+     * 窗口内允许通过的令牌数
+     */
+    private final int limit;
+
+    /**
+     * 窗口长度（微秒）
+     */
+    private final long windowMicros;
+
+    /**
+     * 编码后的窗口长度
+     */
+    private final byte[] windowBytes;
+
+    /**
+     * 编码后的令牌数上限
+     */
+    private final byte[] limitBytes;
+
+    /**
+     * 构造函数
+     *
+     * @param factory spring redis的连接池
+     * @param name 限流器名称，即redis中的key
+     * @param limit 窗口内允许通过的令牌数
+     * @param window 窗口长度，至少1毫秒
+     * @param unit window时间单位
+     */
+    public static RedisSlidingWindowLimiter create(RedisConnectionFactory factory, String name, int limit,
+        long window, TimeUnit unit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        if (unit.toMillis(window) <= 0) {
+            throw new IllegalArgumentException("window must be at least 1ms");
+        }
+        return new RedisSlidingWindowLimiter(factory, name, limit, unit.toMicros(window));
+    }
+
+    private RedisSlidingWindowLimiter(RedisConnectionFactory factory, String name, int limit, long windowMicros) {
+        this.factory = factory;
+        this.nameBytes = ScriptArgs.encode(name);
+        this.limit = limit;
+        this.windowMicros = windowMicros;
+        this.windowBytes = ScriptArgs.encode(windowMicros);
+        this.limitBytes = ScriptArgs.encode(limit);
+    }
+
+    @Override
+    public double acquire(int permits) {
+        checkPermits(permits);
+        long waited = 0;
+        while (true) {
+            long microsToWait = tryReserve(permits, NO_TIMEOUT);
+            if (microsToWait == 0) {
+                return 1.0 * waited / TimeUnit.SECONDS.toMicros(1L);
+            }
+            Ticker.systemTicker().sleepMicrosUninterruptibly(microsToWait);
+            waited += microsToWait;
+        }
+    }
+
+    @Override
+    public boolean tryAcquire(int permits, long timeout, TimeUnit unit) {
+        checkPermits(permits);
+        long deadline = System.nanoTime() + Math.max(unit.toNanos(timeout), 0);
+        while (true) {
+            long leftMicros = Math.max(TimeUnit.NANOSECONDS.toMicros(deadline - System.nanoTime()), 0);
+            long microsToWait = tryReserve(permits, leftMicros);
+            if (microsToWait == 0) {
+                return true;
+            }
+            // 超时时间内不会有足够的令牌滑出窗口
+            if (microsToWait < 0) {
+                return false;
+            }
+            Ticker.systemTicker().sleepMicrosUninterruptibly(microsToWait);
+        }
+    }
+
+    @Override
+    public final double getRate() {
+        return 1.0 * limit * TimeUnit.SECONDS.toMicros(1L) / windowMicros;
+    }
+
+    /**
+     * 在redis中计数
+     *
+     * @param permits 需要的令牌数
+     * @param timeoutMicros 超时时间，-1为不限制
+     * @return 0为获取成功，否则为需要等待的微秒数，超过超时时间时返回-1
+     */
+    private long tryReserve(int permits, long timeoutMicros) {
+        RedisConnection connection = factory.getConnection();
+        try {
+            byte[][] args = ScriptArgs.args(5);
+            args[0] = nameBytes;
+            args[1] = ScriptArgs.encode(permits);
+            args[2] = windowBytes;
+            args[3] = limitBytes;
+            args[4] = ScriptArgs.encode(timeoutMicros);
+            Long microsToWait = ACQUIRE_SCRIPT.eval(connection, ReturnType.INTEGER, 1, args);
+            return microsToWait == null ? 0 : microsToWait;
+        } finally {
+            connection.close();
+        }
+    }
+
+    private void checkPermits(int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("Requested permits must be positive");
+        }
+        if (permits > limit) {
+            throw new IllegalArgumentException("Requested permits must not exceed limit " + limit);
+        }
+    }
+}
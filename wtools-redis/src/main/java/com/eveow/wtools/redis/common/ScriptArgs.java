@@ -0,0 +1,142 @@
+package com.eveow.wtools.redis.common;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 脚本参数编码<br/>
+ * 固定的key、通道名等应在创建时编码一次；数值参数按线程缓存最近用过的编码结果，参数数组按线程复用，
+ * 使热点路径上的每次调用基本不产生新对象
+ *
+ * @author wangjianping
+ */
+public final class ScriptArgs {
+
+    /**
+     * 每个线程缓存的数值个数
+     */
+    private static final int NUMBER_CACHE_SIZE = 8;
+
+    /**
+     * 复用的最大参数个数
+     */
+    private static final int MAX_ARGS = 8;
+
+    /**
+     * 线程缓存
+     */
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    private ScriptArgs() {}
+
+    /**
+     * 字符串编码
+     */
+    public static byte[] encode(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 数值编码，命中线程缓存时不分配
+     */
+    public static byte[] encode(long value) {
+        Buffers buffers = BUFFERS.get();
+        long[] values = buffers.numbers;
+        byte[][] encoded = buffers.encodedNumbers;
+        for (int i = 0; i < NUMBER_CACHE_SIZE; i++) {
+            if (encoded[i] != null && values[i] == value) {
+                return encoded[i];
+            }
+        }
+        byte[] bytes = concat(null, value);
+        int index = buffers.next;
+        values[index] = value;
+        encoded[index] = bytes;
+        buffers.next = (index + 1) % NUMBER_CACHE_SIZE;
+        return bytes;
+    }
+
+    /**
+     * 前缀和数值拼接编码，如节点id前缀+线程id
+     *
+     * @param prefix 已编码的前缀，可为null
+     * @param value 数值
+     */
+    public static byte[] concat(byte[] prefix, long value) {
+        int prefixLength = prefix == null ? 0 : prefix.length;
+        int digits = stringSize(value);
+        byte[] bytes = new byte[prefixLength + digits];
+        if (prefixLength > 0) {
+            System.arraycopy(prefix, 0, bytes, 0, prefixLength);
+        }
+        long v = value;
+        int pos = bytes.length;
+        if (v < 0) {
+            bytes[prefixLength] = '-';
+            // Long.MIN_VALUE取反溢出，逐位按负数计算
+            do {
+                bytes[--pos] = (byte) ('0' - (v % 10));
+                v /= 10;
+            } while (v != 0);
+        } else {
+            do {
+                bytes[--pos] = (byte) ('0' + (v % 10));
+                v /= 10;
+            } while (v != 0);
+        }
+        return bytes;
+    }
+
+    /**
+     * 获取当前线程复用的参数数组，只能用于同步调用，调用返回前不可再次获取同样长度的数组
+     *
+     * @param length 参数个数
+     */
+    public static byte[][] args(int length) {
+        if (length > MAX_ARGS) {
+            return new byte[length][];
+        }
+        return BUFFERS.get().args[length];
+    }
+
+    private static int stringSize(long value) {
+        int size = value < 0 ? 2 : 1;
+        long v = value;
+        while (v <= -10 || v >= 10) {
+            v /= 10;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * 线程缓存
+     */
+    private static class Buffers {
+
+        /**
+         * 缓存的数值
+         */
+        private final long[] numbers = new long[NUMBER_CACHE_SIZE];
+
+        /**
+         * 缓存的数值编码
+         */
+        private final byte[][] encodedNumbers = new byte[NUMBER_CACHE_SIZE][];
+
+        /**
+         * 下一个替换位置
+         */
+        private int next;
+
+        /**
+         * 按长度复用的参数数组
+         */
+        private final byte[][][] args = new byte[MAX_ARGS + 1][][];
+
+        Buffers() {
+            for (int i = 0; i <= MAX_ARGS; i++) {
+                args[i] = new byte[i][];
+            }
+        }
+    }
+}
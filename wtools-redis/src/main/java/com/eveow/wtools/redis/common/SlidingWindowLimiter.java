@@ -0,0 +1,168 @@
+package com.eveow.wtools.redis.common;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 滑动窗口计数限流，近似限制每个窗口长度内通过limit个令牌<br/>
+ * 只记录当前和上一个固定窗口的计数，以上一个窗口计数按未滑出的比例加权近似滑动窗口内的数量，
+ * 内存固定，不随请求数增长；无法获取时计算出没有新请求情况下最早可通过的时间，等待后重试<br/>
+ * 加权假设上一个窗口内的请求均匀分布，并非严格上限：请求集中在窗口边界时，任意窗口长度内通过的令牌数可能超过limit，
+ * 如limit为10、窗口1秒时，0.99秒取走10个后1.5秒还能再取5个，0.51秒内通过15个
+ *
+ * @author wangjianping
+ */
+public class SlidingWindowLimiter implements Limiter {
+
+    /**
+     * 时间源
+     */
+    private final Ticker ticker;
+
+    /**
+     * 对象创建时的时间，用于做时间偏差基量
+     */
+    private final long offsetNanos;
+
+    /**
+     * 窗口内允许通过的令牌数
+     */
+    private final int limit;
+
+    /**
+     * 窗口长度（纳秒）
+     */
+    private final long windowNanos;
+
+    /**
+     * 当前窗口的开始时间（相对offsetNanos的纳秒数）
+     */
+    private long windowStart;
+
+    /**
+     * 当前窗口的计数
+     */
+    private long current;
+
+    /**
+     * 上一个窗口的计数
+     */
+    private long previous;
+
+    /**
+     * 构造函数
+     *
+     * @param limit 窗口内允许通过的令牌数
+     * @param window 窗口长度
+     * @param unit window时间单位
+     */
+    public static SlidingWindowLimiter create(int limit, long window, TimeUnit unit) {
+        return create(Ticker.systemTicker(), limit, window, unit);
+    }
+
+    /**
+     * 指定时间源
+     *
+     * @param ticker 时间源
+     * @param limit 窗口内允许通过的令牌数
+     * @param window 窗口长度
+     * @param unit window时间单位
+     */
+    public static SlidingWindowLimiter create(Ticker ticker, int limit, long window, TimeUnit unit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        if (window <= 0) {
+            throw new IllegalArgumentException("window must be positive");
+        }
+        return new SlidingWindowLimiter(ticker, limit, unit.toNanos(window));
+    }
+
+    private SlidingWindowLimiter(Ticker ticker, int limit, long windowNanos) {
+        this.ticker = ticker;
+        this.offsetNanos = ticker.read();
+        this.limit = limit;
+        this.windowNanos = windowNanos;
+    }
+
+    @Override
+    public double acquire(int permits) {
+        checkPermits(permits);
+        long start = ticker.read();
+        while (true) {
+            long nanosToWait = tryReserve(permits);
+            if (nanosToWait == 0) {
+                return 1.0 * (ticker.read() - start) / TimeUnit.SECONDS.toNanos(1L);
+            }
+            sleepNanos(nanosToWait);
+        }
+    }
+
+    @Override
+    public boolean tryAcquire(int permits, long timeout, TimeUnit unit) {
+        checkPermits(permits);
+        long deadline = ticker.read() + Math.max(unit.toNanos(timeout), 0);
+        while (true) {
+            long nanosToWait = tryReserve(permits);
+            if (nanosToWait == 0) {
+                return true;
+            }
+            // 超时时间内不会有足够的令牌滑出窗口
+            if (nanosToWait > deadline - ticker.read()) {
+                return false;
+            }
+            sleepNanos(nanosToWait);
+        }
+    }
+
+    @Override
+    public final double getRate() {
+        return 1.0 * limit * TimeUnit.SECONDS.toNanos(1L) / windowNanos;
+    }
+
+    /**
+     * 滑动窗口内有余量时计数，否则计算需要等待的时间
+     *
+     * @param permits 需要的令牌数
+     * @return 0为获取成功，否则为没有新请求时需要等待的纳秒数
+     */
+    private synchronized long tryReserve(int permits) {
+        long nowNanos = ticker.read() - offsetNanos;
+        long start = nowNanos - nowNanos % windowNanos;
+        if (start != windowStart) {
+            // 相邻窗口时当前计数成为上一个窗口计数，间隔更久则都已滑出
+            previous = start - windowStart == windowNanos ? current : 0;
+            current = 0;
+            windowStart = start;
+        }
+        long elapsed = nowNanos - start;
+        double weighted = previous * (double) (windowNanos - elapsed) / windowNanos;
+        if (weighted + current + permits <= limit) {
+            current += permits;
+            return 0;
+        }
+        long free = limit - current - permits;
+        long nanosToWait;
+        if (free >= 0) {
+            // 当前窗口内等上一个窗口的计数继续滑出
+            nanosToWait = (long) Math.ceil(windowNanos - (double) free * windowNanos / previous) - elapsed;
+        } else {
+            // 等到下一个窗口，当前计数成为上一个窗口计数后再滑出
+            nanosToWait = windowNanos - elapsed
+                + (long) Math.ceil(windowNanos - (double) (limit - permits) * windowNanos / current);
+        }
+        return Math.max(nanosToWait, 1);
+    }
+
+    private void sleepNanos(long nanos) {
+        ticker.sleepMicrosUninterruptibly((nanos + 999) / 1000);
+    }
+
+    private void checkPermits(int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("Requested permits must be positive");
+        }
+        if (permits > limit) {
+            throw new IllegalArgumentException("Requested permits must not exceed limit " + limit);
+        }
+    }
+}
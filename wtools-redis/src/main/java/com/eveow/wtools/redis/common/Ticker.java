@@ -0,0 +1,68 @@
+package com.eveow.wtools.redis.common;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 时间源，提供单调时间和阻塞等待<br/>
+ * 限流器和锁的计时都经由此类，默认为系统时间；测试或压测时可替换为{@link FakeTicker}，以虚拟时间代替真实等待
+ *
+ * @author wangjianping
+ */
+public abstract class Ticker {
+
+    /**
+     * 系统时间源
+     */
+    private static final Ticker SYSTEM_TICKER = new Ticker() {
+
+        @Override
+        public long read() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void sleepMicrosUninterruptibly(long micros) {
+            if (micros <= 0) {
+                return;
+            }
+            boolean interrupted = false;
+            try {
+                long remainingNanos = TimeUnit.MICROSECONDS.toNanos(micros);
+                long end = System.nanoTime() + remainingNanos;
+                while (true) {
+                    try {
+                        // TimeUnit.sleep() treats negative timeouts just like zero.
+                        TimeUnit.NANOSECONDS.sleep(remainingNanos);
+                        return;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                        remainingNanos = end - System.nanoTime();
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    };
+
+    /**
+     * 系统时间源，读取System.nanoTime()，以线程休眠等待
+     */
+    public static Ticker systemTicker() {
+        return SYSTEM_TICKER;
+    }
+
+    /**
+     * 当前时间（纳秒），只用于计算时间差
+     */
+    public abstract long read();
+
+    /**
+     * 阻塞等待，不响应中断，中断状态在返回后恢复
+     *
+     * @param micros 等待的微秒数，小于等于0时直接返回
+     */
+    public abstract void sleepMicrosUninterruptibly(long micros);
+}
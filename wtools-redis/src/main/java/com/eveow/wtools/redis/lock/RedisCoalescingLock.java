@@ -0,0 +1,342 @@
+package com.eveow.wtools.redis.lock;
+
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 进程内合并竞争的分布式锁<br/>
+ * 同一进程内同名锁的线程先在本地公平锁上排队，只有本地队头以节点身份去竞争redis锁；
+ * 释放时如果本地还有等待者且锁仍在有效期内，可直接把redis锁交给下一个本地线程，省去一次redis往返。
+ * 为避免其他节点饥饿，连续本地交接次数有上限
+ *
+ * @author wangjianping
+ */
+public class RedisCoalescingLock implements Lock {
+
+    /**
+     * 本地锁记录，按连接池和锁名称区分，无线程使用时移除
+     */
+    private static final Map<RedisConnectionFactory, Map<String, LocalEntry>> ENTRIES = new ConcurrentHashMap<>();
+
+    /**
+     * 节点身份持有redis锁时使用的线程id
+     */
+    private static final long NODE_THREAD_ID = 0L;
+
+    /**
+     * 默认最大连续本地交接次数
+     */
+    private static final int DEFAULT_MAX_HANDOFFS = 16;
+
+    /**
+     * spring redis的连接池
+     */
+    private RedisConnectionFactory factory;
+
+    /**
+     * 锁名称
+     */
+    private String name;
+
+    /**
+     * 同一连接池下的本地锁记录
+     */
+    private Map<String, LocalEntry> entries;
+
+    /**
+     * 是否允许本地交接
+     */
+    private boolean handoff = true;
+
+    /**
+     * 最大连续本地交接次数
+     */
+    private int maxHandoffs = DEFAULT_MAX_HANDOFFS;
+
+    public RedisCoalescingLock(RedisConnectionFactory factory, String name) {
+        this.factory = factory;
+        this.name = name;
+        this.entries = ENTRIES.computeIfAbsent(factory, k -> new ConcurrentHashMap<>());
+    }
+
+    /**
+     * 设置本地交接策略
+     *
+     * @param handoff 是否允许不经redis直接交给本地下一个等待者
+     * @param maxHandoffs 最大连续本地交接次数，达到后释放redis锁让其他节点竞争
+     */
+    public void setHandoff(boolean handoff, int maxHandoffs) {
+        this.handoff = handoff;
+        this.maxHandoffs = maxHandoffs;
+    }
+
+    @Override
+    public void lock() {
+        try {
+            lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        lockInterruptibly(-1, null);
+    }
+
+    /**
+     * 加锁可中断
+     *
+     * @param leaseTime 锁过期时间，不指定时由看门狗续期
+     * @param unit
+     * @throws InterruptedException
+     */
+    public void lockInterruptibly(long leaseTime, TimeUnit unit) throws InterruptedException {
+        LocalEntry entry = retain();
+        boolean locked = false;
+        try {
+            entry.local.lockInterruptibly();
+            try {
+                if (entry.local.getHoldCount() == 1 && !entry.isValid()) {
+                    // 交接后已接近过期的锁先释放再重新获取，避免重入计数残留
+                    entry.releaseRedis();
+                    entry.redisLock.lockInterruptibly(leaseTime, unit, NODE_THREAD_ID);
+                    entry.acquired(leaseTime, unit);
+                }
+                locked = true;
+            } finally {
+                if (!locked) {
+                    entry.local.unlock();
+                }
+            }
+        } finally {
+            if (!locked) {
+                release(entry);
+            }
+        }
+    }
+
+    @Override
+    public boolean tryLock() {
+        LocalEntry entry = retain();
+        boolean locked = false;
+        try {
+            if (entry.local.tryLock()) {
+                try {
+                    if (entry.local.getHoldCount() > 1 || entry.isValid()) {
+                        locked = true;
+                    } else {
+                        entry.releaseRedis();
+                        if (entry.redisLock.tryAcquire(-1, null, NODE_THREAD_ID) == null) {
+                            entry.acquired(-1, null);
+                            locked = true;
+                        }
+                    }
+                } finally {
+                    if (!locked) {
+                        entry.local.unlock();
+                    }
+                }
+            }
+            return locked;
+        } finally {
+            if (!locked) {
+                release(entry);
+            }
+        }
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        return tryLock(time, -1, unit);
+    }
+
+    /**
+     * 尝试获取锁，本地排队和redis等待共用等待时间
+     *
+     * @param time 尝试等待时间
+     * @param leaseTime 锁过期时间
+     * @param unit
+     * @return 获取锁返回true,反之超时未获取返回false
+     * @throws InterruptedException
+     */
+    public boolean tryLock(long time, long leaseTime, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(time);
+        LocalEntry entry = retain();
+        boolean locked = false;
+        try {
+            if (entry.local.tryLock(time, unit)) {
+                try {
+                    if (entry.local.getHoldCount() > 1 || entry.isValid()) {
+                        locked = true;
+                    } else {
+                        entry.releaseRedis();
+                        long leftNanos = Math.max(0, deadline - System.nanoTime());
+                        long leftMillis = TimeUnit.NANOSECONDS.toMillis(leftNanos);
+                        long leaseMillis = leaseTime > 0 ? unit.toMillis(leaseTime) : -1;
+                        if (entry.redisLock.tryLock(leftMillis, leaseMillis, TimeUnit.MILLISECONDS, NODE_THREAD_ID)) {
+                            entry.acquired(leaseMillis, TimeUnit.MILLISECONDS);
+                            locked = true;
+                        }
+                    }
+                } finally {
+                    if (!locked) {
+                        entry.local.unlock();
+                    }
+                }
+            }
+            return locked;
+        } finally {
+            if (!locked) {
+                release(entry);
+            }
+        }
+    }
+
+    @Override
+    public void unlock() {
+        LocalEntry entry = entries.get(name);
+        if (entry == null || !entry.local.isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException(
+                "attempt to unlock lock, not locked by current thread: " + name);
+        }
+        try {
+            if (entry.local.getHoldCount() == 1) {
+                if (handoff && entry.handoffs < maxHandoffs && entry.local.hasQueuedThreads() && entry.isValid()) {
+                    // 直接交给本地下一个等待者
+                    entry.handoffs++;
+                } else {
+                    entry.releaseRedis();
+                }
+            }
+        } finally {
+            entry.local.unlock();
+            release(entry);
+        }
+    }
+
+    @Override
+    public Condition newCondition() {
+        return null;
+    }
+
+    /**
+     * 引用本地锁记录
+     */
+    private LocalEntry retain() {
+        return entries.compute(name, (k, entry) -> {
+            if (entry == null) {
+                entry = new LocalEntry(new RedisLock(factory, name));
+            }
+            entry.refs++;
+            return entry;
+        });
+    }
+
+    /**
+     * 释放本地锁记录，最后一个使用者离开时如仍持有redis锁（交接对象放弃等待）则释放
+     */
+    private void release(LocalEntry entry) {
+        boolean[] removed = new boolean[1];
+        entries.computeIfPresent(name, (k, e) -> {
+            if (e != entry || --e.refs > 0) {
+                return e;
+            }
+            removed[0] = true;
+            return null;
+        });
+        if (removed[0] && entry.local.tryLock()) {
+            try {
+                entry.releaseRedis();
+            } finally {
+                entry.local.unlock();
+            }
+        }
+    }
+
+    /**
+     * 本地锁记录
+     */
+    private static class LocalEntry {
+
+        /**
+         * 本地公平锁，决定本地线程的先后
+         */
+        private final ReentrantLock local = new ReentrantLock(true);
+
+        /**
+         * 以节点身份持有的redis锁
+         */
+        private final RedisLock redisLock;
+
+        /**
+         * 使用中的线程数，由map的compute维护
+         */
+        private int refs;
+
+        /**
+         * 以下状态由本地锁保护：是否持有redis锁
+         */
+        private boolean redisHeld;
+
+        /**
+         * redis锁过期时间点（纳秒），由看门狗续期时为Long.MAX_VALUE
+         */
+        private long leaseDeadline;
+
+        /**
+         * 过期前预留的安全时间（纳秒），剩余时间不足时不再交接
+         */
+        private long leaseMargin;
+
+        /**
+         * 连续本地交接次数
+         */
+        private int handoffs;
+
+        LocalEntry(RedisLock redisLock) {
+            this.redisLock = redisLock;
+        }
+
+        /**
+         * 已获取redis锁
+         */
+        void acquired(long leaseTime, TimeUnit unit) {
+            redisHeld = true;
+            handoffs = 0;
+            if (leaseTime > 0 && unit != null) {
+                long leaseNanos = unit.toNanos(leaseTime);
+                leaseDeadline = System.nanoTime() + leaseNanos;
+                leaseMargin = leaseNanos / 3;
+            } else {
+                leaseDeadline = Long.MAX_VALUE;
+                leaseMargin = 0;
+            }
+        }
+
+        /**
+         * 是否持有仍在有效期内的redis锁
+         */
+        boolean isValid() {
+            return redisHeld
+                && (leaseDeadline == Long.MAX_VALUE || leaseDeadline - System.nanoTime() > leaseMargin);
+        }
+
+        /**
+         * 释放redis锁
+         */
+        void releaseRedis() {
+            if (redisHeld) {
+                redisHeld = false;
+                handoffs = 0;
+                redisLock.unlockInner(NODE_THREAD_ID);
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.eveow.wtools.redis.lock;
+
+import com.eveow.wtools.redis.common.LuaScript;
+import com.eveow.wtools.redis.common.ScriptArgs;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分布式闭锁，计数存放在一个字符串key中，计数归零时删除key并通知所有等待者
+ *
+ * @author wangjianping
+ */
+public class RedisCountDownLatch {
+
+    /**
+     * 计数减一脚本
+     *
+     * <pre>
+     *  local v = redis.call('decr', KEYS[1]);
+     *  if (v <= 0) then
+     *      redis.call('del', KEYS[1]);
+     *      redis.call('publish', KEYS[2], ARGV[1]);
+     *  end;
+     *  return v;
+     * </pre>
+     */
+    private static final LuaScript COUNT_DOWN_SCRIPT = new LuaScript("local v = redis.call('decr', KEYS[1]); if (v <= 0) then redis.call('del', KEYS[1]); redis.call('publish', KEYS[2], ARGV[1]); end; return v;");
+
+    /**
+     * 初始化计数脚本，计数未归零时不覆盖
+     *
+     * <pre>
+     *  if (redis.call('exists', KEYS[1]) == 0) then
+     *      redis.call('set', KEYS[1], ARGV[1]);
+     *      return 1;
+     *  end;
+     *  return 0;
+     * </pre>
+     */
+    private static final LuaScript SET_COUNT_SCRIPT = new LuaScript("if (redis.call('exists', KEYS[1]) == 0) then redis.call('set', KEYS[1], ARGV[1]); return 1; end; return 0;");
+
+    /**
+     * 计数归零通知，唤醒全部等待者
+     */
+    private static final byte[] ZERO_MESSAGE = ScriptArgs.encode(RedisLockEntry.WAKE_ALL_MESSAGE);
+
+    /**
+     * 等待归零通知的最长时间，防止通知丢失时一直等待
+     */
+    private static final long MAX_LISTEN_TIME = 30000L;
+
+    /**
+     * spring redis的连接池
+     */
+    private RedisConnectionFactory factory;
+
+    /**
+     * 编码后的闭锁名称
+     */
+    private byte[] nameBytes;
+
+    /**
+     * 编码后的通道名
+     */
+    private byte[] channelBytes;
+
+    /**
+     * redis订阅对象，监控计数归零
+     */
+    private RedisLockSub lockSub;
+
+    public RedisCountDownLatch(RedisConnectionFactory factory, String name) {
+        this.factory = factory;
+        this.nameBytes = ScriptArgs.encode(name);
+        String channel = "redis_latch_channel:" + name;
+        this.channelBytes = ScriptArgs.encode(channel);
+        this.lockSub = new RedisLockSub(factory, channel);
+    }
+
+    /**
+     * 初始化计数，上一轮计数未归零时不修改
+     *
+     * @param count 计数
+     * @return 初始化成功返回true
+     */
+    public boolean trySetCount(long count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("count must be positive");
+        }
+        RedisConnection connection = factory.getConnection();
+        try {
+            byte[][] args = ScriptArgs.args(2);
+            args[0] = nameBytes;
+            args[1] = ScriptArgs.encode(count);
+            Boolean result = SET_COUNT_SCRIPT.eval(connection, ReturnType.BOOLEAN, 1, args);
+            return Boolean.TRUE.equals(result);
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * 计数减一，归零时唤醒所有等待者
+     */
+    public void countDown() {
+        RedisConnection connection = factory.getConnection();
+        try {
+            byte[][] args = ScriptArgs.args(3);
+            args[0] = nameBytes;
+            args[1] = channelBytes;
+            args[2] = ZERO_MESSAGE;
+            COUNT_DOWN_SCRIPT.eval(connection, ReturnType.INTEGER, 2, args);
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * 当前计数
+     */
+    public long getCount() {
+        RedisConnection connection = factory.getConnection();
+        try {
+            byte[] value = connection.get(nameBytes);
+            return value == null ? 0 : Long.parseLong(new String(value, StandardCharsets.UTF_8));
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * 等待计数归零
+     */
+    public void await() throws InterruptedException {
+        if (getCount() <= 0) {
+            return;
+        }
+        // 订阅归零通知
+        lockSub.subscribe();
+        try {
+            while (getCount() > 0) {
+                lockSub.listen(MAX_LISTEN_TIME);
+            }
+        } finally {
+            lockSub.unsubscribe();
+        }
+    }
+
+    /**
+     * 在超时时间内等待计数归零
+     *
+     * @return 已归零返回true，超时返回false
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        if (getCount() <= 0) {
+            return true;
+        }
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        // 订阅归零通知
+        lockSub.subscribe();
+        try {
+            while (getCount() > 0) {
+                long leftTime = deadline - System.currentTimeMillis();
+                if (leftTime <= 0) {
+                    return false;
+                }
+                lockSub.listen(Math.min(leftTime, MAX_LISTEN_TIME));
+            }
+            return true;
+        } finally {
+            lockSub.unsubscribe();
+        }
+    }
+}
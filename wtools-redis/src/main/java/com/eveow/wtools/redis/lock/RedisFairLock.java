@@ -0,0 +1,326 @@
+package com.eveow.wtools.redis.lock;
+
+import com.eveow.wtools.redis.common.LuaScript;
+import com.eveow.wtools.redis.common.ScriptArgs;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 公平分布式锁，沿用{@link RedisLock}的hash结构，另以一个list记录等待队列、一个zset记录各等待者的超时时间点<br/>
+ * 锁按进入队列的先后交接，释放时只通知队头的等待者（通道名为“锁通道:锁获得者”）。
+ * 等待者每次重试都会刷新自己的超时时间，节点宕机后其队列记录在超时后被清理，不会一直阻塞后面的等待者<br/>
+ * 队列key使用“前缀:{锁名称}”的形式，集群下与锁名称落在同一个槽
+ *
+ * @author wangjianping
+ */
+public class RedisFairLock extends RedisLock {
+
+    /**
+     * 加锁脚本，先清理队头已超时的等待者；锁空闲且队列为空或自己是队头时获取锁，
+     * 锁空闲但队头是其他等待者时通知队头；未获取到锁时入队或刷新自己的超时时间
+     *
+     * <pre>
+     *  redis.replicate_commands();
+     *  local time = redis.call('time');
+     *  local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000);
+     *  while true do
+     *      local first = redis.call('lindex', KEYS[2], 0);
+     *      if (first == false) then
+     *          break;
+     *      end;
+     *      local timeout = redis.call('zscore', KEYS[3], first);
+     *      if (timeout ~= false) and (tonumber(timeout) > now) then
+     *          break;
+     *      end;
+     *      redis.call('lpop', KEYS[2]);
+     *      redis.call('zrem', KEYS[3], first);
+     *  end;
+     *  if (redis.call('exists', KEYS[1]) == 0) then
+     *      local first = redis.call('lindex', KEYS[2], 0);
+     *      if (first == false) or (first == ARGV[2]) then
+     *          redis.call('lpop', KEYS[2]);
+     *          redis.call('zrem', KEYS[3], ARGV[2]);
+     *          redis.call('hset', KEYS[1], ARGV[2], 1);
+     *          redis.call('pexpire', KEYS[1], ARGV[1]);
+     *          return nil;
+     *      end;
+     *      redis.call('publish', ARGV[4] .. first, ARGV[5]);
+     *  elseif (redis.call('hexists', KEYS[1], ARGV[2]) == 1) then
+     *      redis.call('hincrby', KEYS[1], ARGV[2], 1);
+     *      redis.call('pexpire', KEYS[1], ARGV[1]);
+     *      return nil;
+     *  end;
+     *  if (redis.call('zadd', KEYS[3], now + tonumber(ARGV[3]), ARGV[2]) == 1) then
+     *      redis.call('rpush', KEYS[2], ARGV[2]);
+     *  end;
+     *  redis.call('pexpire', KEYS[2], ARGV[3]);
+     *  redis.call('pexpire', KEYS[3], ARGV[3]);
+     *  local ttl = redis.call('pttl', KEYS[1]);
+     *  if (ttl < 0) then
+     *      return tonumber(ARGV[3]);
+     *  end;
+     *  return ttl;
+     * </pre>
+     */
+    private static final LuaScript LOCK_SCRIPT = new LuaScript("redis.replicate_commands(); local time = redis.call('time'); local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000); while true do local first = redis.call('lindex', KEYS[2], 0); if (first == false) then break; end; local timeout = redis.call('zscore', KEYS[3], first); if (timeout ~= false) and (tonumber(timeout) > now) then break; end; redis.call('lpop', KEYS[2]); redis.call('zrem', KEYS[3], first); end; if (redis.call('exists', KEYS[1]) == 0) then local first = redis.call('lindex', KEYS[2], 0); if (first == false) or (first == ARGV[2]) then redis.call('lpop', KEYS[2]); redis.call('zrem', KEYS[3], ARGV[2]); redis.call('hset', KEYS[1], ARGV[2], 1); redis.call('pexpire', KEYS[1], ARGV[1]); return nil; end; redis.call('publish', ARGV[4] .. first, ARGV[5]); elseif (redis.call('hexists', KEYS[1], ARGV[2]) == 1) then redis.call('hincrby', KEYS[1], ARGV[2], 1); redis.call('pexpire', KEYS[1], ARGV[1]); return nil; end; if (redis.call('zadd', KEYS[3], now + tonumber(ARGV[3]), ARGV[2]) == 1) then redis.call('rpush', KEYS[2], ARGV[2]); end; redis.call('pexpire', KEYS[2], ARGV[3]); redis.call('pexpire', KEYS[3], ARGV[3]); local ttl = redis.call('pttl', KEYS[1]); if (ttl < 0) then return tonumber(ARGV[3]); end; return ttl;");
+
+    /**
+     * 解锁脚本，完全释放后只通知清理后的队头
+     *
+     * <pre>
+     *  redis.replicate_commands();
+     *  local time = redis.call('time');
+     *  local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000);
+     *  while true do
+     *      local first = redis.call('lindex', KEYS[2], 0);
+     *      if (first == false) then
+     *          break;
+     *      end;
+     *      local timeout = redis.call('zscore', KEYS[3], first);
+     *      if (timeout ~= false) and (tonumber(timeout) > now) then
+     *          break;
+     *      end;
+     *      redis.call('lpop', KEYS[2]);
+     *      redis.call('zrem', KEYS[3], first);
+     *  end;
+     *  if (redis.call('exists', KEYS[1]) == 1) then
+     *      if (redis.call('hexists', KEYS[1], ARGV[3]) == 0) then
+     *          return nil;
+     *      end;
+     *      local counter = redis.call('hincrby', KEYS[1], ARGV[3], -1);
+     *      if (counter > 0) then
+     *          redis.call('pexpire', KEYS[1], ARGV[2]);
+     *          return 0;
+     *      end;
+     *      redis.call('del', KEYS[1]);
+     *  end;
+     *  local next = redis.call('lindex', KEYS[2], 0);
+     *  if (next ~= false) then
+     *      redis.call('publish', ARGV[4] .. next, ARGV[1]);
+     *  end;
+     *  return 1;
+     * </pre>
+     */
+    private static final LuaScript UNLOCK_SCRIPT = new LuaScript("redis.replicate_commands(); local time = redis.call('time'); local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000); while true do local first = redis.call('lindex', KEYS[2], 0); if (first == false) then break; end; local timeout = redis.call('zscore', KEYS[3], first); if (timeout ~= false) and (tonumber(timeout) > now) then break; end; redis.call('lpop', KEYS[2]); redis.call('zrem', KEYS[3], first); end; if (redis.call('exists', KEYS[1]) == 1) then if (redis.call('hexists', KEYS[1], ARGV[3]) == 0) then return nil; end; local counter = redis.call('hincrby', KEYS[1], ARGV[3], -1); if (counter > 0) then redis.call('pexpire', KEYS[1], ARGV[2]); return 0; end; redis.call('del', KEYS[1]); end; local next = redis.call('lindex', KEYS[2], 0); if (next ~= false) then redis.call('publish', ARGV[4] .. next, ARGV[1]); end; return 1;");
+
+    /**
+     * 放弃等待脚本，移出队列，锁空闲时通知新的队头
+     *
+     * <pre>
+     *  redis.call('zrem', KEYS[3], ARGV[1]);
+     *  redis.call('lrem', KEYS[2], 0, ARGV[1]);
+     *  if (redis.call('exists', KEYS[1]) == 0) then
+     *      local next = redis.call('lindex', KEYS[2], 0);
+     *      if (next ~= false) then
+     *          redis.call('publish', ARGV[2] .. next, ARGV[3]);
+     *      end;
+     *  end;
+     *  return 1;
+     * </pre>
+     */
+    private static final LuaScript CANCEL_SCRIPT = new LuaScript("redis.call('zrem', KEYS[3], ARGV[1]); redis.call('lrem', KEYS[2], 0, ARGV[1]); if (redis.call('exists', KEYS[1]) == 0) then local next = redis.call('lindex', KEYS[2], 0); if (next ~= false) then redis.call('publish', ARGV[2] .. next, ARGV[3]); end; end; return 1;");
+
+    /**
+     * 通知消息
+     */
+    private static final byte[] UNLOCK_MESSAGE = ScriptArgs.concat(null, 0L);
+
+    /**
+     * 默认等待者超时时间，超过该时间未刷新的等待者视为已失效
+     */
+    private static final long DEFAULT_THREAD_WAIT_TIME = 5000L;
+
+    /**
+     * 编码后的等待队列名称
+     */
+    private byte[] queueBytes;
+
+    /**
+     * 编码后的等待者超时集合名称
+     */
+    private byte[] timeoutBytes;
+
+    /**
+     * 编码后的等待者通道前缀，通道名+分隔符
+     */
+    private byte[] channelPrefix;
+
+    /**
+     * 等待者超时时间（毫秒）
+     */
+    private volatile long threadWaitTime = DEFAULT_THREAD_WAIT_TIME;
+
+    public RedisFairLock(RedisConnectionFactory factory, String name) {
+        super(factory, name);
+        this.queueBytes = ScriptArgs.encode("redis_lock_queue:{" + name + "}");
+        this.timeoutBytes = ScriptArgs.encode("redis_lock_timeout:{" + name + "}");
+        this.channelPrefix = ScriptArgs.encode(getChannelName() + ":");
+    }
+
+    /**
+     * 设置等待者超时时间，等待期间每隔三分之一的超时时间刷新一次，节点宕机后超过该时间的等待者被移出队列
+     *
+     * @param threadWaitTime 超时时间
+     * @param unit
+     */
+    public void setThreadWaitTime(long threadWaitTime, TimeUnit unit) {
+        long millis = unit.toMillis(threadWaitTime);
+        if (millis < 3) {
+            throw new IllegalArgumentException("thread wait time must be at least 3ms");
+        }
+        this.threadWaitTime = millis;
+    }
+
+    @Override
+    public void lockInterruptibly(long leaseTime, TimeUnit unit, long threadId) throws InterruptedException {
+        acquire(-1, leaseTime, unit, threadId);
+    }
+
+    @Override
+    public boolean tryLock() {
+        try {
+            return acquire(0, -1, null, Thread.currentThread().getId());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public boolean tryLock(long time, long leaseTime, TimeUnit unit, long threadId) throws InterruptedException {
+        long waitTime = time <= 0 || unit == null ? 0 : unit.toMillis(time);
+        return acquire(waitTime, leaseTime, unit, threadId);
+    }
+
+    /**
+     * 排队获取锁，未获取到时移出队列
+     *
+     * @param waitTime 等待时间（毫秒），小于0时一直等待
+     * @param leaseTime 锁过期时间，不指定时由看门狗续期
+     * @param unit
+     * @param threadId 锁持有者线程id
+     * @return 获取锁返回true,反之超时未获取返回false
+     * @throws InterruptedException
+     */
+    private boolean acquire(long waitTime, long leaseTime, TimeUnit unit, long threadId)
+        throws InterruptedException {
+        long current = currentTimeMillis();
+        Long ttl = tryAcquire(leaseTime, unit, threadId);
+        // 获取到锁
+        if (ttl == null) {
+            return true;
+        }
+        boolean acquired = false;
+        try {
+            // 不重试
+            if (waitTime == 0) {
+                return false;
+            }
+            // 订阅当前等待者的通道，只有轮到自己时才会收到通知
+            RedisLockSub ownerSub = new RedisLockSub(getFactory(), getChannelName() + ":" + getLockName(threadId));
+            ownerSub.subscribe();
+            try {
+                while (true) {
+                    // 订阅前的通知可能已丢失，先重试一次；同时刷新自己的超时时间
+                    ttl = tryAcquire(leaseTime, unit, threadId);
+                    if (ttl == null) {
+                        acquired = true;
+                        return true;
+                    }
+                    long listenTime = Math.min(ttl, threadWaitTime / 3);
+                    if (waitTime > 0) {
+                        long leftTime = waitTime - (currentTimeMillis() - current);
+                        if (leftTime <= 0) {
+                            return false;
+                        }
+                        listenTime = Math.min(listenTime, leftTime);
+                    }
+                    // 等待轮到自己的通知
+                    ownerSub.listen(Math.max(listenTime, 1));
+                }
+            } finally {
+                ownerSub.unsubscribe();
+            }
+        } finally {
+            if (!acquired) {
+                cancel(threadId);
+            }
+        }
+    }
+
+    @Override
+    protected Long tryAcquire(long leaseTime, TimeUnit unit, long threadId) {
+        // key过期时间
+        boolean renew = leaseTime <= 0 || unit == null;
+        long expireTime = renew ? getWatchdog().getLeaseTime() : unit.toMillis(leaseTime);
+        byte[] lockName = getLockNameBytes(threadId);
+
+        RedisConnection connection = getFactory().getConnection();
+        try {
+            byte[][] args = ScriptArgs.args(8);
+            args[0] = getNameBytes();
+            args[1] = queueBytes;
+            args[2] = timeoutBytes;
+            args[3] = ScriptArgs.encode(expireTime);
+            args[4] = lockName;
+            args[5] = ScriptArgs.encode(threadWaitTime);
+            args[6] = channelPrefix;
+            args[7] = UNLOCK_MESSAGE;
+
+            Long ttl = LOCK_SCRIPT.eval(connection, ReturnType.INTEGER, 3, args);
+            if (ttl == null && renew) {
+                getWatchdog().add(getNameBytes(), lockName);
+            }
+            return ttl;
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Override
+    protected Boolean unlockInner(long threadId) {
+        byte[] lockName = getLockNameBytes(threadId);
+        RedisConnection connection = getFactory().getConnection();
+        try {
+            byte[][] args = ScriptArgs.args(7);
+            args[0] = getNameBytes();
+            args[1] = queueBytes;
+            args[2] = timeoutBytes;
+            args[3] = UNLOCK_MESSAGE;
+            args[4] = ScriptArgs.encode(getWatchdog().getLeaseTime());
+            args[5] = lockName;
+            args[6] = channelPrefix;
+            Boolean opStatus = UNLOCK_SCRIPT.eval(connection, ReturnType.BOOLEAN, 3, args);
+            // 已完全释放或不再持有，停止续期
+            if (opStatus == null || opStatus) {
+                getWatchdog().remove(getNameBytes(), lockName);
+            }
+            return opStatus;
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * 放弃等待，移出队列
+     */
+    private void cancel(long threadId) {
+        RedisConnection connection = getFactory().getConnection();
+        try {
+            byte[][] args = ScriptArgs.args(6);
+            args[0] = getNameBytes();
+            args[1] = queueBytes;
+            args[2] = timeoutBytes;
+            args[3] = getLockNameBytes(threadId);
+            args[4] = channelPrefix;
+            args[5] = UNLOCK_MESSAGE;
+            CANCEL_SCRIPT.eval(connection, ReturnType.BOOLEAN, 3, args);
+        } finally {
+            connection.close();
+        }
+    }
+}
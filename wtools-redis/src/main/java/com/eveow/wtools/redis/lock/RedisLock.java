@@ -1,8 +1,13 @@
 package com.eveow.wtools.redis.lock;
 
+import com.eveow.wtools.redis.common.LuaScript;
+import com.eveow.wtools.redis.common.ScriptArgs;
+import com.eveow.wtools.redis.common.Ticker;
+
 import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.connection.ReturnType;
+
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
@@ -28,7 +33,22 @@ public class RedisLock implements Lock {
     /**
      * 分布式下唯一节点标识
      */
-    private final UUID id = UUID.randomUUID();
+    private UUID id;
+
+    /**
+     * 编码后的锁名称
+     */
+    private byte[] nameBytes;
+
+    /**
+     * 编码后的通道名
+     */
+    private byte[] channelBytes;
+
+    /**
+     * 编码后的锁获得者前缀，节点名+分隔符
+     */
+    private byte[] idPrefix;
 
     /**
      * redis订阅对象，监控锁释放
@@ -36,9 +56,14 @@ public class RedisLock implements Lock {
     private RedisLockSub lockSub;
 
     /**
-     * 默认锁等待时间
+     * 续期看门狗，未指定过期时间的锁以看门狗的过期时间加锁并在持有期间自动续期
+     */
+    private RedisLockWatchdog watchdog;
+
+    /**
+     * 时间源，用于计算等待时间
      */
-    private static final Long DEFAULT_INTERNAL_TIME = 30000L;
+    private Ticker ticker = Ticker.systemTicker();
 
     /**
      * 加锁脚本
@@ -57,7 +82,7 @@ public class RedisLock implements Lock {
      *  return redis.call('pttl', KEYS[1]);
      * </pre>
      */
-    private static final String LOCK_SCRIPT = "if (redis.call('exists', KEYS[1]) == 0) then redis.call('hset', KEYS[1], ARGV[2], 1); redis.call('pexpire', KEYS[1], ARGV[1]); return nil; end; if (redis.call('hexists', KEYS[1], ARGV[2]) == 1) then redis.call('hincrby', KEYS[1], ARGV[2], 1); redis.call('pexpire', KEYS[1], ARGV[1]); return nil; end; return redis.call('pttl', KEYS[1]);";
+    private static final LuaScript LOCK_SCRIPT = new LuaScript("if (redis.call('exists', KEYS[1]) == 0) then redis.call('hset', KEYS[1], ARGV[2], 1); redis.call('pexpire', KEYS[1], ARGV[1]); return nil; end; if (redis.call('hexists', KEYS[1], ARGV[2]) == 1) then redis.call('hincrby', KEYS[1], ARGV[2], 1); redis.call('pexpire', KEYS[1], ARGV[1]); return nil; end; return redis.call('pttl', KEYS[1]);");
 
     /**
      * 解锁脚本
@@ -82,14 +107,41 @@ public class RedisLock implements Lock {
      *  return nil;
      * </pre>
      */
-    private static final String UNLOCK_SCRIPT = "if (redis.call('exists', KEYS[1]) == 0) then redis.call('publish', KEYS[2], ARGV[1]); return 1; end; if (redis.call('hexists', KEYS[1], ARGV[3]) == 0) then return nil; end; local counter = redis.call('hincrby', KEYS[1], ARGV[3], -1); if (counter > 0) then redis.call('pexpire', KEYS[1], ARGV[2]); return 0; else redis.call('del', KEYS[1]); redis.call('publish', KEYS[2], ARGV[1]); return 1; end; return nil;";
+    private static final LuaScript UNLOCK_SCRIPT = new LuaScript("if (redis.call('exists', KEYS[1]) == 0) then redis.call('publish', KEYS[2], ARGV[1]); return 1; end; if (redis.call('hexists', KEYS[1], ARGV[3]) == 0) then return nil; end; local counter = redis.call('hincrby', KEYS[1], ARGV[3], -1); if (counter > 0) then redis.call('pexpire', KEYS[1], ARGV[2]); return 0; else redis.call('del', KEYS[1]); redis.call('publish', KEYS[2], ARGV[1]); return 1; end; return nil;");
+
+    /**
+     * 解锁通知消息
+     */
+    private static final byte[] UNLOCK_MESSAGE = ScriptArgs.concat(null, 0L);
+
+    /**
+     * 每个线程缓存的锁获得者个数
+     */
+    private static final int OWNER_CACHE_SIZE = 4;
+
+    /**
+     * 按线程缓存最近使用的锁获得者编码
+     */
+    private static final ThreadLocal<OwnerCache> OWNER_CACHE = ThreadLocal.withInitial(OwnerCache::new);
 
     private RedisLock() {}
 
     public RedisLock(RedisConnectionFactory factory, String name) {
+        this(factory, name, UUID.randomUUID());
+    }
+
+    /**
+     * 指定节点标识，多个锁视图（如读写锁）需要共用同一标识识别同一持有者
+     */
+    protected RedisLock(RedisConnectionFactory factory, String name, UUID id) {
         this.factory = factory;
         this.name = name;
+        this.id = id;
+        this.nameBytes = ScriptArgs.encode(name);
+        this.channelBytes = ScriptArgs.encode(getChannelName());
+        this.idPrefix = ScriptArgs.encode(id + ":");
         this.lockSub = new RedisLockSub(factory, getChannelName());
+        this.watchdog = RedisLockWatchdog.getInstance(factory);
     }
 
     /**
@@ -102,6 +154,61 @@ public class RedisLock implements Lock {
         return id + ":" + threadId;
     }
 
+    /**
+     * 编码后的锁获得者，同一线程重复使用时不再分配
+     *
+     * @param threadId
+     * @return
+     */
+    protected byte[] getLockNameBytes(long threadId) {
+        return getLockNameBytes(idPrefix, threadId);
+    }
+
+    /**
+     * 编码后的锁获得者，前缀+线程ID，同一线程重复使用时不再分配
+     *
+     * @param prefix 编码后的前缀，应复用同一个数组
+     * @param threadId
+     * @return
+     */
+    protected static byte[] getLockNameBytes(byte[] prefix, long threadId) {
+        return OWNER_CACHE.get().get(prefix, threadId);
+    }
+
+    protected RedisConnectionFactory getFactory() {
+        return factory;
+    }
+
+    /**
+     * 设置时间源，测试时可传入虚拟时间源控制等待超时
+     */
+    public void setTicker(Ticker ticker) {
+        this.ticker = ticker;
+    }
+
+    /**
+     * 当前时间（毫秒），只用于计算等待时间
+     */
+    protected long currentTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(ticker.read());
+    }
+
+    protected String getName() {
+        return name;
+    }
+
+    protected UUID getId() {
+        return id;
+    }
+
+    protected byte[] getNameBytes() {
+        return nameBytes;
+    }
+
+    protected RedisLockWatchdog getWatchdog() {
+        return watchdog;
+    }
+
     /**
      * 订阅通道名
      * 
@@ -147,7 +254,18 @@ public class RedisLock implements Lock {
      * @throws InterruptedException
      */
     public void lockInterruptibly(long leaseTime, TimeUnit unit) throws InterruptedException {
-        long threadId = Thread.currentThread().getId();
+        lockInterruptibly(leaseTime, unit, Thread.currentThread().getId());
+    }
+
+    /**
+     * 以指定的持有者加锁可中断
+     *
+     * @param leaseTime 锁过期时间
+     * @param unit
+     * @param threadId 锁持有者线程id
+     * @throws InterruptedException
+     */
+    public void lockInterruptibly(long leaseTime, TimeUnit unit, long threadId) throws InterruptedException {
         Long ttl = tryAcquire(leaseTime, unit, threadId);
         // 获取到锁
         if (ttl == null) {
@@ -174,24 +292,45 @@ public class RedisLock implements Lock {
     /**
      * 获取锁
      * 
-     * @param leaseTime 锁过期时间
+     * @param leaseTime 锁过期时间，不指定时由看门狗续期
      * @param unit 时间单位
      * @param threadId 线程id
      * @return
      */
     protected Long tryAcquire(long leaseTime, TimeUnit unit, long threadId) {
+        return tryAcquire(LOCK_SCRIPT, leaseTime, unit, getLockNameBytes(threadId), null);
+    }
+
+    /**
+     * 执行加锁脚本，脚本参数为：KEYS[1]锁名称，ARGV[1]过期时间，ARGV[2]锁获得者，ARGV[3]附加参数
+     *
+     * @param script 加锁脚本，获取成功返回nil，失败返回锁剩余时间
+     * @param leaseTime 锁过期时间，不指定时由看门狗续期
+     * @param unit 时间单位
+     * @param lockName 编码后的锁获得者
+     * @param extraArg 附加参数，可为null
+     * @return
+     */
+    protected Long tryAcquire(LuaScript script, long leaseTime, TimeUnit unit, byte[] lockName, byte[] extraArg) {
         // key过期时间
-        Long expireTime = DEFAULT_INTERNAL_TIME;
-        if (leaseTime > 0 && unit != null) {
-            expireTime = unit.toMillis(leaseTime);
-        }
+        boolean renew = leaseTime <= 0 || unit == null;
+        long expireTime = renew ? watchdog.getLeaseTime() : unit.toMillis(leaseTime);
 
         RedisConnection connection = factory.getConnection();
         try {
-            String lockName = getLockName(threadId);
+            byte[][] args = ScriptArgs.args(extraArg == null ? 3 : 4);
+            args[0] = nameBytes;
+            args[1] = ScriptArgs.encode(expireTime);
+            args[2] = lockName;
+            if (extraArg != null) {
+                args[3] = extraArg;
+            }
 
-            return connection.eval(LOCK_SCRIPT.getBytes(), ReturnType.INTEGER, 1,
-                convert(name, expireTime, lockName));
+            Long ttl = script.eval(connection, ReturnType.INTEGER, 1, args);
+            if (ttl == null && renew) {
+                watchdog.add(nameBytes, lockName);
+            }
+            return ttl;
         } finally {
             connection.close();
         }
@@ -213,8 +352,21 @@ public class RedisLock implements Lock {
      * @throws InterruptedException
      */
     public boolean tryLock(long time, long leaseTime, TimeUnit unit) throws InterruptedException {
-        long threadId = Thread.currentThread().getId();
-        long current = System.currentTimeMillis();
+        return tryLock(time, leaseTime, unit, Thread.currentThread().getId());
+    }
+
+    /**
+     * 以指定的持有者尝试获取锁
+     *
+     * @param time 尝试等待时间
+     * @param leaseTime 锁过期时间
+     * @param unit
+     * @param threadId 锁持有者线程id
+     * @return 获取锁返回true,反之超时未获取返回false
+     * @throws InterruptedException
+     */
+    public boolean tryLock(long time, long leaseTime, TimeUnit unit, long threadId) throws InterruptedException {
+        long current = currentTimeMillis();
         Long ttl = tryAcquire(leaseTime, unit, threadId);
         // 获取到锁
         if (ttl == null) {
@@ -230,7 +382,7 @@ public class RedisLock implements Lock {
         try {
             while (true) {
                 // 判断已到等待时间
-                long leftTime = waitTime - (System.currentTimeMillis() - current);
+                long leftTime = waitTime - (currentTimeMillis() - current);
                 if (leftTime <= 0) {
                     return false;
                 }
@@ -256,7 +408,15 @@ public class RedisLock implements Lock {
 
     @Override
     public void unlock() {
-        long threadId = Thread.currentThread().getId();
+        unlock(Thread.currentThread().getId());
+    }
+
+    /**
+     * 解锁
+     *
+     * @param threadId 锁持有者线程id
+     */
+    public void unlock(long threadId) {
         Boolean opStatus = unlockInner(threadId);
         if (opStatus == null) {
             throw new IllegalMonitorStateException(
@@ -266,31 +426,70 @@ public class RedisLock implements Lock {
     }
 
     protected Boolean unlockInner(long threadId) {
+        return unlockInner(UNLOCK_SCRIPT, UNLOCK_MESSAGE, getLockNameBytes(threadId));
+    }
+
+    /**
+     * 执行解锁脚本，脚本参数为：KEYS[1]锁名称，KEYS[2]通道名，ARGV[1]通知消息，ARGV[2]过期时间，ARGV[3]锁获得者
+     *
+     * @param script 解锁脚本，完全释放返回1，重入计数减一返回0，非持有者返回nil
+     * @param message 编码后的通知消息
+     * @param lockName 编码后的锁获得者
+     * @return
+     */
+    protected Boolean unlockInner(LuaScript script, byte[] message, byte[] lockName) {
         RedisConnection connection = factory.getConnection();
         try {
-            String lockName = getLockName(threadId);
-            return connection.eval(UNLOCK_SCRIPT.getBytes(), ReturnType.BOOLEAN, 2,
-                convert(name, getChannelName(), 0L, DEFAULT_INTERNAL_TIME, lockName));
+            byte[][] args = ScriptArgs.args(5);
+            args[0] = nameBytes;
+            args[1] = channelBytes;
+            args[2] = message;
+            args[3] = ScriptArgs.encode(watchdog.getLeaseTime());
+            args[4] = lockName;
+            Boolean opStatus = script.eval(connection, ReturnType.BOOLEAN, 2, args);
+            // 已完全释放或不再持有，停止续期
+            if (opStatus == null || opStatus) {
+                watchdog.remove(nameBytes, lockName);
+            }
+            return opStatus;
         } finally {
             connection.close();
         }
     }
 
-    protected byte[][] convert(Object... args) {
-        byte[][] array = new byte[args.length][];
-        for (int i = 0; i < args.length; i++) {
-            Object arg = args[i];
-            if (arg instanceof String) {
-                array[i] = ((String) arg).getBytes();
-            } else {
-                array[i] = String.valueOf(arg).getBytes();
-            }
-        }
-        return array;
-    }
-
     @Override
     public Condition newCondition() {
         return null;
     }
+
+    /**
+     * 锁获得者编码缓存，以节点前缀和线程id为key
+     */
+    private static class OwnerCache {
+
+        private final byte[][] prefixes = new byte[OWNER_CACHE_SIZE][];
+
+        private final long[] threadIds = new long[OWNER_CACHE_SIZE];
+
+        private final byte[][] lockNames = new byte[OWNER_CACHE_SIZE][];
+
+        /**
+         * 下一个替换位置
+         */
+        private int next;
+
+        byte[] get(byte[] prefix, long threadId) {
+            for (int i = 0; i < OWNER_CACHE_SIZE; i++) {
+                if (prefixes[i] == prefix && threadIds[i] == threadId) {
+                    return lockNames[i];
+                }
+            }
+            byte[] lockName = ScriptArgs.concat(prefix, threadId);
+            prefixes[next] = prefix;
+            threadIds[next] = threadId;
+            lockNames[next] = lockName;
+            next = (next + 1) % OWNER_CACHE_SIZE;
+            return lockName;
+        }
+    }
 }
@@ -0,0 +1,246 @@
+package com.eveow.wtools.redis.lock;
+
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 分布式锁的非阻塞版本<br/>
+ * 等待锁时不占用线程，由锁释放通知和共享定时器驱动重试，redis调用在少量执行线程上完成；<br/>
+ * 异步调用通常运行在共享的事件循环或线程池线程上，线程id不能区分持有者，因此所有方法都须显式传入持有者id：
+ * 同一把锁的并发请求使用不同的id，加锁和解锁使用同一个id
+ *
+ * @author wangjianping
+ */
+public class RedisLockAsync {
+
+    /**
+     * 默认执行redis调用的线程池
+     */
+    private static final Executor DEFAULT_EXECUTOR = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(), RedisLockPubSub.threadFactory("redis-lock-async"));
+
+    /**
+     * 同步锁，复用加锁解锁脚本
+     */
+    private final RedisLock lock;
+
+    /**
+     * 共享订阅中心
+     */
+    private final RedisLockPubSub pubSub;
+
+    /**
+     * 订阅通道名
+     */
+    private final String channel;
+
+    /**
+     * 执行redis调用的线程池
+     */
+    private final Executor executor;
+
+    public RedisLockAsync(RedisConnectionFactory factory, String name) {
+        this(factory, name, DEFAULT_EXECUTOR);
+    }
+
+    public RedisLockAsync(RedisConnectionFactory factory, String name, Executor executor) {
+        this.lock = new RedisLock(factory, name);
+        this.pubSub = RedisLockPubSub.getInstance(factory);
+        this.channel = lock.getChannelName();
+        this.executor = executor;
+    }
+
+    /**
+     * 加锁
+     *
+     * @param threadId 锁持有者id
+     */
+    public CompletableFuture<Void> lockAsync(long threadId) {
+        return lockAsync(-1, null, threadId);
+    }
+
+    /**
+     * 加锁
+     *
+     * @param leaseTime 锁过期时间
+     * @param unit
+     * @param threadId 锁持有者id
+     */
+    public CompletableFuture<Void> lockAsync(long leaseTime, TimeUnit unit, long threadId) {
+        CompletableFuture<Boolean> result = acquire(-1, leaseTime, unit, threadId);
+        CompletableFuture<Void> future = result.thenApply(r -> null);
+        // 取消返回的future时同时取消加锁
+        future.whenComplete((r, e) -> {
+            if (future.isCancelled()) {
+                result.cancel(false);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 尝试获取锁，不等待
+     *
+     * @param threadId 锁持有者id
+     */
+    public CompletableFuture<Boolean> tryLockAsync(long threadId) {
+        return tryLockAsync(0, -1, null, threadId);
+    }
+
+    /**
+     * 尝试获取锁
+     *
+     * @param time 尝试等待时间
+     * @param unit
+     * @param threadId 锁持有者id
+     */
+    public CompletableFuture<Boolean> tryLockAsync(long time, TimeUnit unit, long threadId) {
+        return tryLockAsync(time, -1, unit, threadId);
+    }
+
+    /**
+     * 尝试获取锁
+     *
+     * @param time 尝试等待时间
+     * @param leaseTime 锁过期时间
+     * @param unit
+     * @param threadId 锁持有者id
+     * @return 获取锁以true完成，反之超时未获取以false完成
+     */
+    public CompletableFuture<Boolean> tryLockAsync(long time, long leaseTime, TimeUnit unit, long threadId) {
+        // 不重试
+        if (time <= 0 || unit == null) {
+            CompletableFuture<Boolean> result = new CompletableFuture<>();
+            executor.execute(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                try {
+                    if (lock.tryAcquire(leaseTime, unit, threadId) == null) {
+                        complete(result, threadId);
+                    } else {
+                        result.complete(false);
+                    }
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+            return result;
+        }
+        return acquire(System.currentTimeMillis() + unit.toMillis(time), leaseTime, unit, threadId);
+    }
+
+    /**
+     * 解锁
+     *
+     * @param threadId 锁持有者id
+     */
+    public CompletableFuture<Void> unlockAsync(long threadId) {
+        return CompletableFuture.runAsync(() -> lock.unlock(threadId), executor);
+    }
+
+    /**
+     * 获取锁，失败时订阅锁通知后异步等待重试
+     *
+     * @param deadline 等待截止时间，小于0表示一直等待
+     */
+    private CompletableFuture<Boolean> acquire(long deadline, long leaseTime, TimeUnit unit, long threadId) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        // 当前的异步等待，调用方取消时立即移出等待队列
+        AtomicReference<CompletableFuture<String>> listening = new AtomicReference<>();
+        result.whenComplete((r, e) -> {
+            CompletableFuture<String> listen = listening.get();
+            if (result.isCancelled() && listen != null) {
+                listen.cancel(false);
+            }
+        });
+        executor.execute(() -> {
+            // 调用方已取消
+            if (result.isDone()) {
+                return;
+            }
+            try {
+                Long ttl = lock.tryAcquire(leaseTime, unit, threadId);
+                // 获取到锁
+                if (ttl == null) {
+                    complete(result, threadId);
+                    return;
+                }
+                // 订阅锁通知
+                pubSub.subscribe(channel);
+                await(result, listening, ttl, deadline, leaseTime, unit, threadId);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 等待锁释放通知或超时，再次尝试获取锁
+     */
+    private void await(CompletableFuture<Boolean> result, AtomicReference<CompletableFuture<String>> listening,
+        long ttl, long deadline, long leaseTime, TimeUnit unit, long threadId) {
+        long waitTime = ttl;
+        if (deadline >= 0) {
+            // 判断已到等待时间
+            long leftTime = deadline - System.currentTimeMillis();
+            if (leftTime <= 0) {
+                pubSub.unsubscribe(channel);
+                result.complete(false);
+                return;
+            }
+            waitTime = Math.min(leftTime, ttl);
+        }
+        // 调用方已取消
+        if (result.isDone()) {
+            pubSub.unsubscribe(channel);
+            return;
+        }
+        RedisLockEntry entry = pubSub.getEntry(channel);
+        CompletableFuture<String> listen = entry.listenAsync(waitTime, pubSub.getScheduler());
+        listening.set(listen);
+        if (result.isCancelled()) {
+            listen.cancel(false);
+        }
+        listen.whenCompleteAsync((message, cause) -> {
+            // 等待期间调用方已取消，不再尝试获取锁，已收到的唤醒转交给下一个等待者
+            if (result.isDone()) {
+                if (message != null) {
+                    entry.onMessage(message);
+                }
+                pubSub.unsubscribe(channel);
+                return;
+            }
+            Long nextTtl;
+            try {
+                // 再次尝试获取锁
+                nextTtl = lock.tryAcquire(leaseTime, unit, threadId);
+            } catch (RuntimeException e) {
+                pubSub.unsubscribe(channel);
+                result.completeExceptionally(e);
+                return;
+            }
+            if (nextTtl == null) {
+                pubSub.unsubscribe(channel);
+                complete(result, threadId);
+            } else {
+                await(result, listening, nextTtl, deadline, leaseTime, unit, threadId);
+            }
+        }, executor);
+    }
+
+    /**
+     * 完成加锁，调用方已取消时释放锁
+     */
+    private void complete(CompletableFuture<Boolean> result, long threadId) {
+        if (!result.complete(true)) {
+            lock.unlockInner(threadId);
+        }
+    }
+}
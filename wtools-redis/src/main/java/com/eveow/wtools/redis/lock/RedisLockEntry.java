@@ -0,0 +1,281 @@
+package com.eveow.wtools.redis.lock;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 单个订阅通道的等待者记录，由{@link RedisLockPubSub}统一维护<br/>
+ * 等待者按先后排队，每条释放消息只唤醒队头的一个等待者，避免所有等待线程同时涌向redis；<br/>
+ * 等待者可以是阻塞的线程，也可以是由定时器控制超时的{@link CompletableFuture}
+ *
+ * @author wangjianping
+ */
+public class RedisLockEntry {
+
+    /**
+     * 唤醒全部等待者的消息，用于共享资源释放（如写锁释放后所有读锁可同时获取）
+     */
+    public static final String WAKE_ALL_MESSAGE = "-1";
+
+    /**
+     * 转交唤醒的消息前缀，后接剩余可转交次数
+     */
+    private static final String HANDOFF_PREFIX = "handoff:";
+
+    /**
+     * 等待队列
+     */
+    private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 没有等待者时到达的消息，保留一条，避免订阅后、开始等待前的释放通知丢失
+     */
+    private final AtomicReference<String> pending = new AtomicReference<>();
+
+    /**
+     * 通道名称
+     */
+    private final String channel;
+
+    /**
+     * 编码后的通道名称
+     */
+    private final byte[] channelBytes;
+
+    /**
+     * 引用计数，由订阅中心加锁维护
+     */
+    private int refs;
+
+    RedisLockEntry(String channel) {
+        this.channel = channel;
+        this.channelBytes = channel.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    byte[] getChannelBytes() {
+        return channelBytes;
+    }
+
+    void retain() {
+        refs++;
+    }
+
+    int release() {
+        return --refs;
+    }
+
+    /**
+     * 收到通道消息：{@link #WAKE_ALL_MESSAGE}唤醒全部，大于1的数字唤醒相应个数（如信号量释放的许可数），其他唤醒一个
+     */
+    void onMessage(String message) {
+        wake(wakeCount(message), message);
+    }
+
+    private static int wakeCount(String message) {
+        if (WAKE_ALL_MESSAGE.equals(message)) {
+            return Integer.MAX_VALUE;
+        }
+        try {
+            long count = Long.parseLong(message);
+            return count > 1 ? (int) Math.min(count, Integer.MAX_VALUE) : 1;
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * 被唤醒后仍无法获取资源时，把唤醒转交给下一个等待者（如需要许可数较少的信号量等待者）<br/>
+     * 首次转交的次数上限为当时的等待者数，每转交一次减一，所有等待者都无法获取时不会无限循环
+     *
+     * @param message 被唤醒时收到的消息，为null（超时）时不转交
+     */
+    void handoff(String message) {
+        if (message == null) {
+            return;
+        }
+        int hops = message.startsWith(HANDOFF_PREFIX)
+            ? Integer.parseInt(message.substring(HANDOFF_PREFIX.length())) - 1 : waiters.size();
+        if (hops > 0) {
+            wake(1, HANDOFF_PREFIX + hops);
+        }
+    }
+
+    /**
+     * 按排队顺序唤醒count个等待者
+     */
+    private void wake(int count, String message) {
+        int woken = 0;
+        Waiter waiter;
+        while (woken < count && (waiter = waiters.poll()) != null) {
+            // 已超时的等待者跳过
+            if (waiter.signal(message)) {
+                woken++;
+            }
+        }
+        if (woken == 0) {
+            pending.set(message);
+        }
+    }
+
+    /**
+     * 等待通道消息
+     *
+     * @param timeout 阻塞等待时间
+     * @return 收到的消息，超时返回null
+     */
+    public String listen(long timeout) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        Waiter waiter = new Waiter(Thread.currentThread(), null);
+        waiters.add(waiter);
+        // 入队后再检查一次，防止入队前到达的消息丢失
+        String message = pending.getAndSet(null);
+        if (message != null) {
+            if (waiter.cancel()) {
+                waiters.remove(waiter);
+                return message;
+            }
+            // 已被其他消息唤醒，保留这条消息
+            pending.compareAndSet(null, message);
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        try {
+            while (!waiter.isDone()) {
+                long nanos = deadline - System.nanoTime();
+                if (nanos <= 0) {
+                    break;
+                }
+                LockSupport.parkNanos(this, nanos);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } catch (InterruptedException e) {
+            // 已被唤醒却被中断，把唤醒传给下一个等待者
+            if (!waiter.cancel()) {
+                wake(1, waiter.getMessage());
+            }
+            throw e;
+        } finally {
+            // 超时，移出队列
+            if (waiter.cancel()) {
+                waiters.remove(waiter);
+            }
+        }
+        return waiter.getMessage();
+    }
+
+    /**
+     * 异步等待通道消息，不占用线程
+     *
+     * @param timeout 等待时间
+     * @param scheduler 超时定时器
+     * @return 收到消息时以消息完成，超时以null完成；在订阅线程或定时器线程上完成，后续操作应切换到其他线程执行；
+     *         取消时移出等待队列，不再占用唤醒
+     */
+    public CompletableFuture<String> listenAsync(long timeout, ScheduledExecutorService scheduler) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        Waiter waiter = new Waiter(null, future);
+        waiters.add(waiter);
+        // 入队后再检查一次，防止入队前到达的消息丢失
+        String message = pending.getAndSet(null);
+        if (message != null) {
+            if (waiter.cancel()) {
+                waiters.remove(waiter);
+                future.complete(message);
+                return future;
+            }
+            pending.compareAndSet(null, message);
+        }
+        if (!waiter.isDone()) {
+            ScheduledFuture<?> timer = scheduler.schedule(() -> {
+                // 超时，移出队列
+                if (waiter.cancel()) {
+                    waiters.remove(waiter);
+                    future.complete(null);
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+            future.whenComplete((r, e) -> {
+                timer.cancel(false);
+                if (future.isCancelled() && waiter.cancel()) {
+                    waiters.remove(waiter);
+                }
+            });
+        }
+        return future;
+    }
+
+    /**
+     * 等待者
+     */
+    private static class Waiter {
+
+        /**
+         * 未唤醒状态
+         */
+        private static final Object WAITING = new Object();
+
+        /**
+         * 已取消状态
+         */
+        private static final Object CANCELLED = new Object();
+
+        /**
+         * 等待线程，异步等待时为null
+         */
+        private final Thread thread;
+
+        /**
+         * 异步等待结果，线程等待时为null
+         */
+        private final CompletableFuture<String> future;
+
+        /**
+         * 等待状态，唤醒时存放收到的消息，唤醒或取消只能成功一次
+         */
+        private final AtomicReference<Object> state = new AtomicReference<>(WAITING);
+
+        Waiter(Thread thread, CompletableFuture<String> future) {
+            this.thread = thread;
+            this.future = future;
+        }
+
+        boolean signal(String message) {
+            String value = message == null ? "" : message;
+            if (state.compareAndSet(WAITING, value)) {
+                if (thread != null) {
+                    LockSupport.unpark(thread);
+                    return true;
+                }
+                // 异步等待已被取消时唤醒下一个
+                return future.complete(value);
+            }
+            return false;
+        }
+
+        boolean cancel() {
+            return state.compareAndSet(WAITING, CANCELLED);
+        }
+
+        boolean isDone() {
+            return state.get() != WAITING;
+        }
+
+        String getMessage() {
+            Object value = state.get();
+            return value instanceof String ? (String) value : null;
+        }
+    }
+}
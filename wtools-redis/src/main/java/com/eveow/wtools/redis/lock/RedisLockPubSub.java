@@ -0,0 +1,370 @@
+package com.eveow.wtools.redis.lock;
+
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内共享的锁订阅中心<br/>
+ * 同一个连接池下的所有锁通道共用一个订阅连接、一个监听线程和一个调度线程，通道按引用计数动态订阅和取消订阅，
+ * 收到的消息按通道名分发给对应的等待者，线程数和连接数不随锁名称的数量增长<br/>
+ * 建立订阅连接时只在加锁状态下发布新连接，连接就绪由监听线程收到中心通道的探测消息确认，等待在锁外进行；
+ * 连接建立期间新增的通道先排队，就绪后统一追加订阅，重连不阻塞其他通道的订阅和取消
+ *
+ * @author wangjianping
+ */
+public class RedisLockPubSub {
+
+    /**
+     * 每个连接池一个订阅中心
+     */
+    private static final Map<RedisConnectionFactory, RedisLockPubSub> INSTANCES = new ConcurrentHashMap<>();
+
+    /**
+     * 常驻通道，保证没有锁通道时订阅连接也不会因通道全部取消而退出，同时用于探测订阅连接就绪；
+     * 名称不在各锁通道的前缀下，不会与锁名称冲突
+     */
+    private static final byte[] HUB_CHANNEL = "redis_lock_hub".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 等待订阅连接就绪的最大时间
+     */
+    private static final long SUBSCRIBE_WAIT_MILLIS = 1000;
+
+    /**
+     * 连接就绪前发送探测消息的间隔
+     */
+    private static final long PING_INTERVAL_MILLIS = 10;
+
+    /**
+     * 探测消息
+     */
+    private static final byte[] PING_MESSAGE = "ping".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 已订阅的通道
+     */
+    private final Map<String, RedisLockEntry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * 空闲连接检测周期
+     */
+    private long maxConnectTime = 30000;
+
+    /**
+     * 连接池
+     */
+    private final RedisConnectionFactory factory;
+
+    /**
+     * 当前订阅连接
+     */
+    private volatile RedisConnection connection;
+
+    /**
+     * 当前订阅连接的就绪信号，监听线程收到探测消息、建立超时或连接释放时放行
+     */
+    private volatile CountDownLatch ready = new CountDownLatch(0);
+
+    /**
+     * 连接建立期间新增的通道，连接就绪后追加订阅，由订阅中心加锁维护
+     */
+    private final List<RedisLockEntry> pending = new ArrayList<>();
+
+    /**
+     * 订阅线程池
+     */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(threadFactory("redis-lock-sub"));
+
+    /**
+     * 调度线城池
+     */
+    private final ScheduledExecutorService scheduler = Executors
+        .newSingleThreadScheduledExecutor(threadFactory("redis-lock-scheduler"));
+
+    private RedisLockPubSub(RedisConnectionFactory factory) {
+        this.factory = factory;
+        // 定时检查异常连接和空闲连接
+        scheduler.scheduleAtFixedRate(this::check, maxConnectTime, maxConnectTime, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 获取连接池对应的订阅中心
+     *
+     * @param factory
+     * @return
+     */
+    public static RedisLockPubSub getInstance(RedisConnectionFactory factory) {
+        return INSTANCES.computeIfAbsent(factory, RedisLockPubSub::new);
+    }
+
+    /**
+     * 订阅通道，引用计数加一；订阅连接建立中时在锁外等待连接就绪
+     *
+     * @param channel 通道名
+     * @return 通道的等待者记录
+     */
+    public RedisLockEntry subscribe(String channel) {
+        RedisLockEntry entry;
+        CountDownLatch latch;
+        synchronized (this) {
+            entry = entries.get(channel);
+            if (entry == null) {
+                entry = new RedisLockEntry(channel);
+                entries.put(channel, entry);
+                try {
+                    subscribeChannel(entry);
+                } catch (RuntimeException e) {
+                    entries.remove(channel);
+                    throw e;
+                }
+            }
+            entry.retain();
+            latch = ready;
+        }
+        try {
+            latch.await(SUBSCRIBE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return entry;
+    }
+
+    /**
+     * 取消订阅，引用计数归零时取消该通道
+     *
+     * @param channel 通道名
+     */
+    public synchronized void unsubscribe(String channel) {
+        RedisLockEntry entry = entries.get(channel);
+        if (entry == null || entry.release() > 0) {
+            return;
+        }
+        entries.remove(channel);
+        if (ready.getCount() > 0) {
+            // 连接建立中，未追加的通道直接出队，已在建立时订阅的通道就绪后取消
+            pending.remove(entry);
+            return;
+        }
+        RedisConnection curConn = connection;
+        if (curConn != null && curConn.isSubscribed()) {
+            try {
+                curConn.getSubscription().unsubscribe(entry.getChannelBytes());
+            } catch (RuntimeException e) {
+                // 连接异常，丢弃后由下次订阅或定时检查重建
+                disconnect();
+            }
+        }
+    }
+
+    /**
+     * 获取已订阅通道的等待者记录
+     *
+     * @param channel 通道名
+     * @return 未订阅时返回null
+     */
+    public RedisLockEntry getEntry(String channel) {
+        return entries.get(channel);
+    }
+
+    /**
+     * 共享的调度线程，只可用于执行轻量的定时任务
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * 在已有订阅连接上追加通道，连接建立中时排队，无可用连接时重建连接
+     */
+    private void subscribeChannel(RedisLockEntry entry) {
+        RedisConnection curConn = connection;
+        if (curConn != null && ready.getCount() > 0) {
+            pending.add(entry);
+            return;
+        }
+        if (curConn != null && !curConn.isClosed() && curConn.isSubscribed()) {
+            try {
+                curConn.getSubscription().subscribe(entry.getChannelBytes());
+                return;
+            } catch (RuntimeException e) {
+                disconnect();
+            }
+        }
+        connect();
+    }
+
+    /**
+     * 建立订阅连接，一次订阅所有通道；只发布新连接，不等待连接就绪
+     */
+    private void connect() {
+        disconnect();
+        byte[][] channels = new byte[entries.size() + 1][];
+        int i = 0;
+        channels[i++] = HUB_CHANNEL;
+        for (RedisLockEntry entry : entries.values()) {
+            channels[i++] = entry.getChannelBytes();
+        }
+        final RedisConnection curConn = factory.getConnection();
+        if (curConn.isSubscribed()) {
+            throw new RuntimeException("connection is subscribed");
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        connection = curConn;
+        ready = latch;
+        MessageListener listener = (message, pattern) -> {
+            // 先判断中心通道，探测消息不会分发给同名的锁通道
+            if (Arrays.equals(HUB_CHANNEL, message.getChannel())) {
+                if (latch.getCount() > 0) {
+                    // 收到探测消息，订阅已建立
+                    onSubscribed(curConn, channels);
+                }
+                return;
+            }
+            RedisLockEntry entry = entries.get(new String(message.getChannel(), StandardCharsets.UTF_8));
+            if (entry != null) {
+                entry.onMessage(new String(message.getBody(), StandardCharsets.UTF_8));
+            }
+        };
+        // 开线程监听订阅通道
+        executor.execute(() -> {
+            try {
+                // 阻塞线程，监听订阅的通道消息
+                curConn.subscribe(listener, channels);
+            } catch (RuntimeException e) {
+                // 订阅异常，由定时检查重连
+            }
+        });
+        long deadline = System.currentTimeMillis() + SUBSCRIBE_WAIT_MILLIS;
+        scheduler.execute(() -> ping(curConn, latch, deadline));
+    }
+
+    /**
+     * 向中心通道发送探测消息，直到监听线程收到；超时未就绪时释放连接，由下次订阅或定时检查重建
+     */
+    private void ping(RedisConnection curConn, CountDownLatch latch, long deadline) {
+        if (latch.getCount() == 0) {
+            return;
+        }
+        if (System.currentTimeMillis() >= deadline) {
+            synchronized (this) {
+                if (connection == curConn && ready == latch) {
+                    disconnect();
+                }
+            }
+            return;
+        }
+        if (curConn.isSubscribed()) {
+            RedisConnection pubConn = null;
+            try {
+                pubConn = factory.getConnection();
+                pubConn.publish(HUB_CHANNEL, PING_MESSAGE);
+            } catch (RuntimeException e) {
+                // 下次重试
+            } finally {
+                if (pubConn != null) {
+                    pubConn.close();
+                }
+            }
+        }
+        scheduler.schedule(() -> ping(curConn, latch, deadline), PING_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 订阅连接就绪：追加建立期间新增的通道，取消建立期间已取消的通道，然后放行等待者
+     *
+     * @param curConn 就绪的连接
+     * @param channels 建立连接时订阅的通道
+     */
+    private synchronized void onSubscribed(RedisConnection curConn, byte[][] channels) {
+        CountDownLatch latch = ready;
+        if (connection != curConn || latch.getCount() == 0) {
+            return;
+        }
+        try {
+            if (!pending.isEmpty()) {
+                byte[][] added = new byte[pending.size()][];
+                for (int i = 0; i < added.length; i++) {
+                    added[i] = pending.get(i).getChannelBytes();
+                }
+                curConn.getSubscription().subscribe(added);
+            }
+            List<byte[]> removed = new ArrayList<>();
+            for (int i = 1; i < channels.length; i++) {
+                if (!entries.containsKey(new String(channels[i], StandardCharsets.UTF_8))) {
+                    removed.add(channels[i]);
+                }
+            }
+            if (!removed.isEmpty()) {
+                curConn.getSubscription().unsubscribe(removed.toArray(new byte[removed.size()][]));
+            }
+            pending.clear();
+            latch.countDown();
+        } catch (RuntimeException e) {
+            // 连接异常，丢弃后由下次订阅或定时检查重建
+            disconnect();
+        }
+    }
+
+    /**
+     * 释放订阅连接
+     */
+    private void disconnect() {
+        RedisConnection curConn = connection;
+        if (curConn == null) {
+            return;
+        }
+        connection = null;
+        // 新连接会一次订阅所有通道，排队的通道无需保留
+        pending.clear();
+        ready.countDown();
+        try {
+            if (curConn.isSubscribed()) {
+                // 触发监听线程结束
+                curConn.getSubscription().unsubscribe();
+            }
+        } catch (RuntimeException e) {
+            // 忽略，直接关闭连接
+        } finally {
+            // 归还redis连接
+            curConn.close();
+        }
+    }
+
+    /**
+     * 定时检查：异常连接重连，无订阅通道时释放连接
+     */
+    private synchronized void check() {
+        try {
+            RedisConnection curConn = connection;
+            if (entries.isEmpty()) {
+                disconnect();
+            } else if (ready.getCount() == 0 && (curConn == null || curConn.isClosed() || !curConn.isSubscribed())) {
+                connect();
+            }
+        } catch (RuntimeException e) {
+            // 等待下次检查
+        }
+    }
+
+    static ThreadFactory threadFactory(String name) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,223 @@
+package com.eveow.wtools.redis.lock;
+
+import com.eveow.wtools.redis.common.LuaScript;
+import com.eveow.wtools.redis.common.ScriptArgs;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 锁续期看门狗<br/>
+ * 未指定过期时间的锁在持有期间由看门狗定时续期，同一连接池下本进程持有的所有锁在每个周期内通过一次pipeline批量续期，
+ * 因此可以使用较短的默认过期时间，持有者崩溃后锁能尽快释放
+ *
+ * @author wangjianping
+ */
+public class RedisLockWatchdog {
+
+    /**
+     * 每个连接池一个看门狗
+     */
+    private static final Map<RedisConnectionFactory, RedisLockWatchdog> INSTANCES = new ConcurrentHashMap<>();
+
+    /**
+     * 默认锁过期时间
+     */
+    private static final long DEFAULT_LEASE_TIME = 30000L;
+
+    /**
+     * 续期脚本，仍由该持有者持有时才续期
+     *
+     * <pre>
+     *  if (redis.call('hexists', KEYS[1], ARGV[2]) == 1) then
+     *      redis.call('pexpire', KEYS[1], ARGV[1]);
+     *      return 1;
+     *  end;
+     *  return 0;
+     * </pre>
+     */
+    private static final LuaScript RENEW_SCRIPT = new LuaScript("if (redis.call('hexists', KEYS[1], ARGV[2]) == 1) then redis.call('pexpire', KEYS[1], ARGV[1]); return 1; end; return 0;");
+
+    /**
+     * 连接池
+     */
+    private final RedisConnectionFactory factory;
+
+    /**
+     * 待续期的锁，value为本次登记的标记，用于区分释放后重新登记的同一把锁
+     */
+    private final Map<Renewal, Object> renewals = new ConcurrentHashMap<>();
+
+    /**
+     * 锁过期时间，续期周期为其1/3
+     */
+    private volatile long leaseTime = DEFAULT_LEASE_TIME;
+
+    /**
+     * 续期线程
+     */
+    private final ScheduledExecutorService scheduler = Executors
+        .newSingleThreadScheduledExecutor(RedisLockPubSub.threadFactory("redis-lock-watchdog"));
+
+    private RedisLockWatchdog(RedisConnectionFactory factory) {
+        this.factory = factory;
+        schedule();
+    }
+
+    /**
+     * 获取连接池对应的看门狗
+     *
+     * @param factory
+     * @return
+     */
+    public static RedisLockWatchdog getInstance(RedisConnectionFactory factory) {
+        return INSTANCES.computeIfAbsent(factory, RedisLockWatchdog::new);
+    }
+
+    /**
+     * 锁过期时间（毫秒）
+     */
+    public long getLeaseTime() {
+        return leaseTime;
+    }
+
+    /**
+     * 设置锁过期时间，从下一周期起生效
+     *
+     * @param leaseTime
+     * @param unit
+     */
+    public void setLeaseTime(long leaseTime, TimeUnit unit) {
+        long millis = unit.toMillis(leaseTime);
+        if (millis < 3) {
+            throw new IllegalArgumentException("lease time must be at least 3 milliseconds");
+        }
+        this.leaseTime = millis;
+    }
+
+    /**
+     * 加入续期
+     *
+     * @param key 编码后的锁名称
+     * @param lockName 编码后的锁持有者
+     */
+    public void add(byte[] key, byte[] lockName) {
+        renewals.computeIfAbsent(new Renewal(key, lockName), k -> new Object());
+    }
+
+    /**
+     * 移除续期
+     *
+     * @param key 编码后的锁名称
+     * @param lockName 编码后的锁持有者
+     */
+    public void remove(byte[] key, byte[] lockName) {
+        if (!renewals.isEmpty()) {
+            renewals.remove(new Renewal(key, lockName));
+        }
+    }
+
+    private void schedule() {
+        scheduler.schedule(() -> {
+            try {
+                renew();
+            } catch (RuntimeException e) {
+                // 等待下一周期重试
+            } finally {
+                schedule();
+            }
+        }, leaseTime / 3, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 批量续期，一次往返
+     */
+    private void renew() {
+        if (renewals.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<Renewal, Object>> batch = new ArrayList<>(renewals.entrySet());
+        byte[] lease = ScriptArgs.encode(leaseTime);
+        List<Object> results;
+        RedisConnection connection = factory.getConnection();
+        try {
+            try {
+                results = renew(connection, batch, lease);
+            } catch (RuntimeException e) {
+                if (!LuaScript.isNoScript(e)) {
+                    throw e;
+                }
+                // redis重启等原因丢失脚本缓存，重新加载后重试
+                RENEW_SCRIPT.load(connection);
+                results = renew(connection, batch, lease);
+            }
+        } finally {
+            connection.close();
+        }
+        // 已不再持有的锁不再续期
+        for (int i = 0; i < batch.size() && i < results.size(); i++) {
+            Object result = results.get(i);
+            if (result instanceof Number && ((Number) result).longValue() == 0) {
+                Map.Entry<Renewal, Object> e = batch.get(i);
+                renewals.remove(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    private List<Object> renew(RedisConnection connection, List<Map.Entry<Renewal, Object>> batch, byte[] lease) {
+        connection.openPipeline();
+        for (Map.Entry<Renewal, Object> e : batch) {
+            Renewal renewal = e.getKey();
+            RENEW_SCRIPT.evalInPipeline(connection, ReturnType.INTEGER, 1, renewal.key, lease, renewal.field);
+        }
+        return connection.closePipeline();
+    }
+
+    /**
+     * 续期记录
+     */
+    private static class Renewal {
+
+        /**
+         * 锁的key
+         */
+        private final byte[] key;
+
+        /**
+         * 持有者字段
+         */
+        private final byte[] field;
+
+        Renewal(byte[] key, byte[] field) {
+            this.key = key;
+            this.field = field;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Renewal)) {
+                return false;
+            }
+            Renewal other = (Renewal) o;
+            return Arrays.equals(key, other.key) && Arrays.equals(field, other.field);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(key) + Arrays.hashCode(field);
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package com.eveow.wtools.redis.lock;
+
+import com.eveow.wtools.redis.common.LuaScript;
+import com.eveow.wtools.redis.common.ScriptArgs;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * 多key分布式锁，一次脚本调用原子地获取全部key，任一key被其他持有者占用时一个都不获取，不存在加锁顺序导致的死锁；
+ * 解锁同样一次脚本调用完成，部分key因租约过期被其他持有者占用时，仍释放其余仍持有的key后再报告异常<br/>
+ * 每个key沿用{@link RedisLock}的hash结构和通知通道，与同名的单key锁互斥。
+ * 获取失败时只等待当前阻塞的key的释放通知，该key释放前不可能获取成功<br/>
+ * 集群下所有key须落在同一个槽，可使用“{tag}”形式的锁名称
+ *
+ * @author wangjianping
+ */
+public class RedisMultiLock implements Lock {
+
+    /**
+     * 加锁脚本，成功返回nil，失败返回{阻塞的key序号, 该key剩余时间}
+     *
+     * <pre>
+     *  for i = 1, #KEYS do
+     *      if (redis.call('exists', KEYS[i]) == 1) and (redis.call('hexists', KEYS[i], ARGV[2]) == 0) then
+     *          return {i, redis.call('pttl', KEYS[i])};
+     *      end;
+     *  end;
+     *  for i = 1, #KEYS do
+     *      redis.call('hincrby', KEYS[i], ARGV[2], 1);
+     *      redis.call('pexpire', KEYS[i], ARGV[1]);
+     *  end;
+     *  return nil;
+     * </pre>
+     */
+    private static final LuaScript LOCK_SCRIPT = new LuaScript("for i = 1, #KEYS do if (redis.call('exists', KEYS[i]) == 1) and (redis.call('hexists', KEYS[i], ARGV[2]) == 0) then return {i, redis.call('pttl', KEYS[i])}; end; end; for i = 1, #KEYS do redis.call('hincrby', KEYS[i], ARGV[2], 1); redis.call('pexpire', KEYS[i], ARGV[1]); end; return nil;");
+
+    /**
+     * 解锁脚本，前一半key为锁名称，后一半为对应的通道名；逐个key释放当前持有者仍持有的部分，
+     * 返回每个key的状态：1已释放或已不存在，0重入计数未归零仍持有，-1已被其他持有者占用（不做修改）
+     *
+     * <pre>
+     *  local n = #KEYS / 2;
+     *  local result = {};
+     *  for i = 1, n do
+     *      if (redis.call('hexists', KEYS[i], ARGV[3]) == 0) then
+     *          if (redis.call('exists', KEYS[i]) == 1) then
+     *              result[i] = -1;
+     *          else
+     *              redis.call('publish', KEYS[n + i], ARGV[1]);
+     *              result[i] = 1;
+     *          end;
+     *      else
+     *          local counter = redis.call('hincrby', KEYS[i], ARGV[3], -1);
+     *          if (counter > 0) then
+     *              redis.call('pexpire', KEYS[i], ARGV[2]);
+     *              result[i] = 0;
+     *          else
+     *              redis.call('del', KEYS[i]);
+     *              redis.call('publish', KEYS[n + i], ARGV[1]);
+     *              result[i] = 1;
+     *          end;
+     *      end;
+     *  end;
+     *  return result;
+     * </pre>
+     */
+    private static final LuaScript UNLOCK_SCRIPT = new LuaScript("local n = #KEYS / 2; local result = {}; for i = 1, n do if (redis.call('hexists', KEYS[i], ARGV[3]) == 0) then if (redis.call('exists', KEYS[i]) == 1) then result[i] = -1; else redis.call('publish', KEYS[n + i], ARGV[1]); result[i] = 1; end; else local counter = redis.call('hincrby', KEYS[i], ARGV[3], -1); if (counter > 0) then redis.call('pexpire', KEYS[i], ARGV[2]); result[i] = 0; else redis.call('del', KEYS[i]); redis.call('publish', KEYS[n + i], ARGV[1]); result[i] = 1; end; end; end; return result;");
+
+    /**
+     * 解锁通知消息
+     */
+    private static final byte[] UNLOCK_MESSAGE = ScriptArgs.concat(null, 0L);
+
+    /**
+     * 转交给下一个本地等待者的唤醒消息
+     */
+    private static final String HANDOFF_MESSAGE = "0";
+
+    /**
+     * 锁未设置过期时间时的最长等待时间
+     */
+    private static final long MAX_LISTEN_TIME = 30000L;
+
+    /**
+     * spring redis的连接池
+     */
+    private RedisConnectionFactory factory;
+
+    /**
+     * 去重排序后的锁名称
+     */
+    private String[] names;
+
+    /**
+     * 各锁的通道名
+     */
+    private String[] channels;
+
+    /**
+     * 编码后的锁名称和通道名，前一半为锁名称，后一半为通道名
+     */
+    private byte[][] keys;
+
+    /**
+     * 分布式下唯一节点标识
+     */
+    private UUID id;
+
+    /**
+     * 编码后的锁获得者前缀，节点名+分隔符
+     */
+    private byte[] idPrefix;
+
+    /**
+     * 共享订阅中心
+     */
+    private RedisLockPubSub pubSub;
+
+    /**
+     * 续期看门狗
+     */
+    private RedisLockWatchdog watchdog;
+
+    public RedisMultiLock(RedisConnectionFactory factory, String... names) {
+        this(factory, Arrays.asList(names));
+    }
+
+    public RedisMultiLock(RedisConnectionFactory factory, Collection<String> names) {
+        if (names.isEmpty()) {
+            throw new IllegalArgumentException("names is empty");
+        }
+        this.factory = factory;
+        this.names = new TreeSet<>(names).toArray(new String[0]);
+        int n = this.names.length;
+        this.channels = new String[n];
+        this.keys = new byte[n * 2][];
+        for (int i = 0; i < n; i++) {
+            channels[i] = "redis_lock_channel:" + this.names[i];
+            keys[i] = ScriptArgs.encode(this.names[i]);
+            keys[n + i] = ScriptArgs.encode(channels[i]);
+        }
+        this.id = UUID.randomUUID();
+        this.idPrefix = ScriptArgs.encode(id + ":");
+        this.pubSub = RedisLockPubSub.getInstance(factory);
+        this.watchdog = RedisLockWatchdog.getInstance(factory);
+    }
+
+    @Override
+    public void lock() {
+        try {
+            lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 加锁
+     *
+     * @param leaseTime 锁过期时间
+     * @param unit
+     */
+    public void lock(long leaseTime, TimeUnit unit) {
+        try {
+            lockInterruptibly(leaseTime, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        lockInterruptibly(-1, null);
+    }
+
+    /**
+     * 加锁可中断
+     *
+     * @param leaseTime 锁过期时间
+     * @param unit
+     * @throws InterruptedException
+     */
+    public void lockInterruptibly(long leaseTime, TimeUnit unit) throws InterruptedException {
+        acquire(-1, leaseTime, unit, Thread.currentThread().getId());
+    }
+
+    @Override
+    public boolean tryLock() {
+        return tryAcquire(-1, null, Thread.currentThread().getId()) == null;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        return tryLock(time, -1, unit);
+    }
+
+    /**
+     * 尝试获取全部锁
+     *
+     * @param time 尝试等待时间
+     * @param leaseTime 锁过期时间
+     * @param unit
+     * @return 获取锁返回true,反之超时未获取返回false
+     * @throws InterruptedException
+     */
+    public boolean tryLock(long time, long leaseTime, TimeUnit unit) throws InterruptedException {
+        long waitTime = time <= 0 || unit == null ? 0 : unit.toMillis(time);
+        return acquire(waitTime, leaseTime, unit, Thread.currentThread().getId());
+    }
+
+    /**
+     * 获取全部锁，失败时订阅阻塞的key的通道等待
+     *
+     * @param waitTime 等待时间（毫秒），小于0时一直等待
+     * @param leaseTime 锁过期时间，不指定时由看门狗续期
+     * @param unit
+     * @param threadId 锁持有者线程id
+     * @return 获取锁返回true,反之超时未获取返回false
+     * @throws InterruptedException
+     */
+    private boolean acquire(long waitTime, long leaseTime, TimeUnit unit, long threadId)
+        throws InterruptedException {
+        long current = System.currentTimeMillis();
+        List<Object> blocked = tryAcquire(leaseTime, unit, threadId);
+        // 获取到锁
+        if (blocked == null) {
+            return true;
+        }
+        // 不重试
+        if (waitTime == 0) {
+            return false;
+        }
+        RedisLockEntry[] entries = new RedisLockEntry[names.length];
+        int wokenBy = -1;
+        try {
+            while (true) {
+                int index = ((Long) blocked.get(0)).intValue() - 1;
+                long ttl = (Long) blocked.get(1);
+                // 被某个key的释放通知唤醒后仍被其他key阻塞，把唤醒转交给该key的下一个本地等待者
+                if (wokenBy >= 0 && wokenBy != index) {
+                    entries[wokenBy].onMessage(HANDOFF_MESSAGE);
+                }
+                wokenBy = -1;
+                if (entries[index] == null) {
+                    // 订阅阻塞的key的通道，订阅前的通知可能已丢失，订阅后立即重试
+                    entries[index] = pubSub.subscribe(channels[index]);
+                } else {
+                    long listenTime = ttl > 0 ? ttl : MAX_LISTEN_TIME;
+                    if (waitTime > 0) {
+                        long leftTime = waitTime - (System.currentTimeMillis() - current);
+                        if (leftTime <= 0) {
+                            return false;
+                        }
+                        listenTime = Math.min(listenTime, leftTime);
+                    }
+                    // 等待锁释放通知
+                    if (entries[index].listen(listenTime) != null) {
+                        wokenBy = index;
+                    }
+                }
+                // 再次尝试获取锁
+                blocked = tryAcquire(leaseTime, unit, threadId);
+                // 获取到锁
+                if (blocked == null) {
+                    return true;
+                }
+            }
+        } finally {
+            for (int i = 0; i < entries.length; i++) {
+                if (entries[i] != null) {
+                    pubSub.unsubscribe(channels[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取全部锁
+     *
+     * @param leaseTime 锁过期时间，不指定时由看门狗续期
+     * @param unit 时间单位
+     * @param threadId 线程id
+     * @return 获取成功返回null，失败返回阻塞的key序号（从1开始）和该key剩余时间
+     */
+    private List<Object> tryAcquire(long leaseTime, TimeUnit unit, long threadId) {
+        // key过期时间
+        boolean renew = leaseTime <= 0 || unit == null;
+        long expireTime = renew ? watchdog.getLeaseTime() : unit.toMillis(leaseTime);
+        byte[] lockName = RedisLock.getLockNameBytes(idPrefix, threadId);
+
+        int n = names.length;
+        RedisConnection connection = factory.getConnection();
+        try {
+            byte[][] args = ScriptArgs.args(n + 2);
+            System.arraycopy(keys, 0, args, 0, n);
+            args[n] = ScriptArgs.encode(expireTime);
+            args[n + 1] = lockName;
+
+            List<Object> blocked = LOCK_SCRIPT.eval(connection, ReturnType.MULTI, n, args);
+            if (blocked == null && renew) {
+                for (int i = 0; i < n; i++) {
+                    watchdog.add(keys[i], lockName);
+                }
+            }
+            return blocked;
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Override
+    public void unlock() {
+        long threadId = Thread.currentThread().getId();
+        byte[] lockName = RedisLock.getLockNameBytes(idPrefix, threadId);
+
+        int n = names.length;
+        List<Object> status;
+        RedisConnection connection = factory.getConnection();
+        try {
+            byte[][] args = ScriptArgs.args(n * 2 + 3);
+            System.arraycopy(keys, 0, args, 0, n * 2);
+            args[n * 2] = UNLOCK_MESSAGE;
+            args[n * 2 + 1] = ScriptArgs.encode(watchdog.getLeaseTime());
+            args[n * 2 + 2] = lockName;
+            status = UNLOCK_SCRIPT.eval(connection, ReturnType.MULTI, n * 2, args);
+        } finally {
+            connection.close();
+        }
+        StringBuilder lost = null;
+        for (int i = 0; i < n; i++) {
+            long keyStatus = (Long) status.get(i);
+            // 已完全释放或不再持有，停止续期
+            if (keyStatus != 0) {
+                watchdog.remove(keys[i], lockName);
+            }
+            if (keyStatus < 0) {
+                lost = lost == null ? new StringBuilder(names[i]) : lost.append(',').append(names[i]);
+            }
+        }
+        if (lost != null) {
+            throw new IllegalMonitorStateException(
+                "attempt to unlock lock, not locked by current thread by node id: " + id
+                    + " thread-id: " + threadId + " keys: " + lost);
+        }
+    }
+
+    @Override
+    public Condition newCondition() {
+        return null;
+    }
+}
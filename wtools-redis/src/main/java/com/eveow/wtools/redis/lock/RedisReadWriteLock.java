@@ -0,0 +1,217 @@
+package com.eveow.wtools.redis.lock;
+
+import com.eveow.wtools.redis.common.LuaScript;
+import com.eveow.wtools.redis.common.ScriptArgs;
+
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * 分布式读写锁，沿用{@link RedisLock}的hash结构：mode字段记录当前模式（read/write），
+ * 其余字段为各持有者的重入计数，读锁持有者为“节点名:线程ID”，写锁持有者为“节点名:write:线程ID”<br/>
+ * 多个读锁可同时持有；写锁独占，持有写锁的线程可再获取读锁（降级）。写锁释放时唤醒全部等待者，读锁全部释放时唤醒一个
+ *
+ * @author wangjianping
+ */
+public class RedisReadWriteLock implements ReadWriteLock {
+
+    /**
+     * 读锁加锁脚本
+     *
+     * <pre>
+     *  local mode = redis.call('hget', KEYS[1], 'mode');
+     *  if (mode == false) then
+     *      redis.call('hset', KEYS[1], 'mode', 'read');
+     *      redis.call('hset', KEYS[1], ARGV[2], 1);
+     *      redis.call('pexpire', KEYS[1], ARGV[1]);
+     *      return nil;
+     *  end;
+     *  if (mode == 'read') or (mode == 'write' and redis.call('hexists', KEYS[1], ARGV[3]) == 1) then
+     *      redis.call('hincrby', KEYS[1], ARGV[2], 1);
+     *      local ttl = redis.call('pttl', KEYS[1]);
+     *      redis.call('pexpire', KEYS[1], math.max(ttl, tonumber(ARGV[1])));
+     *      return nil;
+     *  end;
+     *  return redis.call('pttl', KEYS[1]);
+     * </pre>
+     */
+    private static final LuaScript READ_LOCK_SCRIPT = new LuaScript("local mode = redis.call('hget', KEYS[1], 'mode'); if (mode == false) then redis.call('hset', KEYS[1], 'mode', 'read'); redis.call('hset', KEYS[1], ARGV[2], 1); redis.call('pexpire', KEYS[1], ARGV[1]); return nil; end; if (mode == 'read') or (mode == 'write' and redis.call('hexists', KEYS[1], ARGV[3]) == 1) then redis.call('hincrby', KEYS[1], ARGV[2], 1); local ttl = redis.call('pttl', KEYS[1]); redis.call('pexpire', KEYS[1], math.max(ttl, tonumber(ARGV[1]))); return nil; end; return redis.call('pttl', KEYS[1]);");
+
+    /**
+     * 读锁解锁脚本
+     *
+     * <pre>
+     *  local mode = redis.call('hget', KEYS[1], 'mode');
+     *  if (mode == false) then
+     *      redis.call('publish', KEYS[2], ARGV[1]);
+     *      return 1;
+     *  end;
+     *  if (redis.call('hexists', KEYS[1], ARGV[3]) == 0) then
+     *      return nil;
+     *  end;
+     *  local counter = redis.call('hincrby', KEYS[1], ARGV[3], -1);
+     *  if (counter == 0) then
+     *      redis.call('hdel', KEYS[1], ARGV[3]);
+     *  end;
+     *  if (redis.call('hlen', KEYS[1]) > 1) then
+     *      return 0;
+     *  end;
+     *  redis.call('del', KEYS[1]);
+     *  redis.call('publish', KEYS[2], ARGV[1]);
+     *  return 1;
+     * </pre>
+     */
+    private static final LuaScript READ_UNLOCK_SCRIPT = new LuaScript("local mode = redis.call('hget', KEYS[1], 'mode'); if (mode == false) then redis.call('publish', KEYS[2], ARGV[1]); return 1; end; if (redis.call('hexists', KEYS[1], ARGV[3]) == 0) then return nil; end; local counter = redis.call('hincrby', KEYS[1], ARGV[3], -1); if (counter == 0) then redis.call('hdel', KEYS[1], ARGV[3]); end; if (redis.call('hlen', KEYS[1]) > 1) then return 0; end; redis.call('del', KEYS[1]); redis.call('publish', KEYS[2], ARGV[1]); return 1;");
+
+    /**
+     * 写锁加锁脚本
+     *
+     * <pre>
+     *  local mode = redis.call('hget', KEYS[1], 'mode');
+     *  if (mode == false) then
+     *      redis.call('hset', KEYS[1], 'mode', 'write');
+     *      redis.call('hset', KEYS[1], ARGV[2], 1);
+     *      redis.call('pexpire', KEYS[1], ARGV[1]);
+     *      return nil;
+     *  end;
+     *  if (mode == 'write') and (redis.call('hexists', KEYS[1], ARGV[2]) == 1) then
+     *      redis.call('hincrby', KEYS[1], ARGV[2], 1);
+     *      redis.call('pexpire', KEYS[1], ARGV[1]);
+     *      return nil;
+     *  end;
+     *  return redis.call('pttl', KEYS[1]);
+     * </pre>
+     */
+    private static final LuaScript WRITE_LOCK_SCRIPT = new LuaScript("local mode = redis.call('hget', KEYS[1], 'mode'); if (mode == false) then redis.call('hset', KEYS[1], 'mode', 'write'); redis.call('hset', KEYS[1], ARGV[2], 1); redis.call('pexpire', KEYS[1], ARGV[1]); return nil; end; if (mode == 'write') and (redis.call('hexists', KEYS[1], ARGV[2]) == 1) then redis.call('hincrby', KEYS[1], ARGV[2], 1); redis.call('pexpire', KEYS[1], ARGV[1]); return nil; end; return redis.call('pttl', KEYS[1]);");
+
+    /**
+     * 写锁解锁脚本，仍有降级的读锁时切换为读模式
+     *
+     * <pre>
+     *  local mode = redis.call('hget', KEYS[1], 'mode');
+     *  if (mode == false) then
+     *      redis.call('publish', KEYS[2], ARGV[1]);
+     *      return 1;
+     *  end;
+     *  if (mode ~= 'write') or (redis.call('hexists', KEYS[1], ARGV[3]) == 0) then
+     *      return nil;
+     *  end;
+     *  local counter = redis.call('hincrby', KEYS[1], ARGV[3], -1);
+     *  if (counter > 0) then
+     *      redis.call('pexpire', KEYS[1], ARGV[2]);
+     *      return 0;
+     *  end;
+     *  redis.call('hdel', KEYS[1], ARGV[3]);
+     *  if (redis.call('hlen', KEYS[1]) == 1) then
+     *      redis.call('del', KEYS[1]);
+     *  else
+     *      redis.call('hset', KEYS[1], 'mode', 'read');
+     *  end;
+     *  redis.call('publish', KEYS[2], ARGV[1]);
+     *  return 1;
+     * </pre>
+     */
+    private static final LuaScript WRITE_UNLOCK_SCRIPT = new LuaScript("local mode = redis.call('hget', KEYS[1], 'mode'); if (mode == false) then redis.call('publish', KEYS[2], ARGV[1]); return 1; end; if (mode ~= 'write') or (redis.call('hexists', KEYS[1], ARGV[3]) == 0) then return nil; end; local counter = redis.call('hincrby', KEYS[1], ARGV[3], -1); if (counter > 0) then redis.call('pexpire', KEYS[1], ARGV[2]); return 0; end; redis.call('hdel', KEYS[1], ARGV[3]); if (redis.call('hlen', KEYS[1]) == 1) then redis.call('del', KEYS[1]); else redis.call('hset', KEYS[1], 'mode', 'read'); end; redis.call('publish', KEYS[2], ARGV[1]); return 1;");
+
+    /**
+     * 读锁释放通知，唤醒一个等待的写锁
+     */
+    private static final byte[] READ_UNLOCK_MESSAGE = ScriptArgs.encode("0");
+
+    /**
+     * 写锁释放通知，唤醒全部等待者
+     */
+    private static final byte[] WRITE_UNLOCK_MESSAGE = ScriptArgs.encode(RedisLockEntry.WAKE_ALL_MESSAGE);
+
+    /**
+     * 读锁
+     */
+    private final ReadLock readLock;
+
+    /**
+     * 写锁
+     */
+    private final WriteLock writeLock;
+
+    public RedisReadWriteLock(RedisConnectionFactory factory, String name) {
+        UUID id = UUID.randomUUID();
+        this.writeLock = new WriteLock(factory, name, id);
+        this.readLock = new ReadLock(factory, name, id, writeLock);
+    }
+
+    @Override
+    public RedisLock readLock() {
+        return readLock;
+    }
+
+    @Override
+    public RedisLock writeLock() {
+        return writeLock;
+    }
+
+    /**
+     * 读锁视图
+     */
+    private static class ReadLock extends RedisLock {
+
+        /**
+         * 同一读写锁的写锁视图，用于识别当前线程是否持有写锁
+         */
+        private final WriteLock writeLock;
+
+        ReadLock(RedisConnectionFactory factory, String name, UUID id, WriteLock writeLock) {
+            super(factory, name, id);
+            this.writeLock = writeLock;
+        }
+
+        @Override
+        protected Long tryAcquire(long leaseTime, TimeUnit unit, long threadId) {
+            return tryAcquire(READ_LOCK_SCRIPT, leaseTime, unit, getLockNameBytes(threadId),
+                writeLock.getLockNameBytes(threadId));
+        }
+
+        @Override
+        protected Boolean unlockInner(long threadId) {
+            return unlockInner(READ_UNLOCK_SCRIPT, READ_UNLOCK_MESSAGE, getLockNameBytes(threadId));
+        }
+    }
+
+    /**
+     * 写锁视图
+     */
+    private static class WriteLock extends RedisLock {
+
+        /**
+         * 编码后的写锁获得者前缀
+         */
+        private final byte[] writePrefix;
+
+        WriteLock(RedisConnectionFactory factory, String name, UUID id) {
+            super(factory, name, id);
+            this.writePrefix = ScriptArgs.encode(id + ":write:");
+        }
+
+        @Override
+        protected String getLockName(long threadId) {
+            return getId() + ":write:" + threadId;
+        }
+
+        @Override
+        protected byte[] getLockNameBytes(long threadId) {
+            return getLockNameBytes(writePrefix, threadId);
+        }
+
+        @Override
+        protected Long tryAcquire(long leaseTime, TimeUnit unit, long threadId) {
+            return tryAcquire(WRITE_LOCK_SCRIPT, leaseTime, unit, getLockNameBytes(threadId), null);
+        }
+
+        @Override
+        protected Boolean unlockInner(long threadId) {
+            return unlockInner(WRITE_UNLOCK_SCRIPT, WRITE_UNLOCK_MESSAGE, getLockNameBytes(threadId));
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.eveow.wtools.redis.lock;
+
+import com.eveow.wtools.redis.common.LuaScript;
+import com.eveow.wtools.redis.common.ScriptArgs;
+
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * 多个独立redis节点上的分布式锁（Redlock）<br/>
+ * 并行向所有节点执行{@link RedisLock}的加锁脚本，在有效期内获得过半节点即为成功，加锁耗时接近过半节点中最慢的一次往返；
+ * 未达到多数或有效期已耗尽时并行释放所有节点后重试。单个节点主从切换丢失锁时，其余多数节点仍保证互斥<br/>
+ * 解锁时只统计锁仍由当前持有者持有的节点，已过期或未加锁成功的节点不计入，不足多数时抛出异常
+ *
+ * @author wangjianping
+ */
+public class RedisRedLock implements Lock {
+
+    /**
+     * 默认并行执行线程池
+     */
+    private static final Executor DEFAULT_EXECUTOR = Executors.newCachedThreadPool(
+        RedisLockPubSub.threadFactory("redis-redlock"));
+
+    /**
+     * 时钟漂移系数，有效期需扣除过期时间的1%
+     */
+    private static final double CLOCK_DRIFT_FACTOR = 0.01;
+
+    /**
+     * 重试前的最大随机等待时间，错开同时竞争的节点
+     */
+    private static final long MAX_RETRY_DELAY = 200L;
+
+    /**
+     * 解锁脚本，与{@link RedisLock}的解锁脚本不同，key不存在时同样返回nil，不计为仍持有
+     *
+     * <pre>
+     *  if (redis.call('hexists', KEYS[1], ARGV[3]) == 0) then
+     *      return nil;
+     *  end;
+     *  local counter = redis.call('hincrby', KEYS[1], ARGV[3], -1);
+     *  if (counter > 0) then
+     *      redis.call('pexpire', KEYS[1], ARGV[2]);
+     *      return 0;
+     *  else
+     *      redis.call('del', KEYS[1]);
+     *      redis.call('publish', KEYS[2], ARGV[1]);
+     *      return 1;
+     *  end;
+     * </pre>
+     */
+    private static final LuaScript UNLOCK_SCRIPT = new LuaScript("if (redis.call('hexists', KEYS[1], ARGV[3]) == 0) then return nil; end; local counter = redis.call('hincrby', KEYS[1], ARGV[3], -1); if (counter > 0) then redis.call('pexpire', KEYS[1], ARGV[2]); return 0; else redis.call('del', KEYS[1]); redis.call('publish', KEYS[2], ARGV[1]); return 1; end;");
+
+    /**
+     * 解锁通知消息
+     */
+    private static final byte[] UNLOCK_MESSAGE = ScriptArgs.concat(null, 0L);
+
+    /**
+     * 各节点上的锁，共用同一节点标识
+     */
+    private RedisLock[] locks;
+
+    /**
+     * 成功所需的节点数
+     */
+    private int quorum;
+
+    /**
+     * 并行执行线程池
+     */
+    private Executor executor;
+
+    /**
+     * 续期看门狗，用于未指定过期时间时计算有效期
+     */
+    private RedisLockWatchdog watchdog;
+
+    /**
+     * 各线程未完成的加锁请求，解锁前等待其完成，避免慢节点在解锁后才加锁成功
+     */
+    private final Map<Long, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+
+    public RedisRedLock(List<RedisConnectionFactory> factories, String name) {
+        this(factories, name, DEFAULT_EXECUTOR);
+    }
+
+    public RedisRedLock(List<RedisConnectionFactory> factories, String name, Executor executor) {
+        if (factories.isEmpty()) {
+            throw new IllegalArgumentException("factories is empty");
+        }
+        UUID id = UUID.randomUUID();
+        this.locks = new RedisLock[factories.size()];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new RedisLock(factories.get(i), name, id);
+        }
+        this.quorum = locks.length / 2 + 1;
+        this.executor = executor;
+        this.watchdog = RedisLockWatchdog.getInstance(factories.get(0));
+    }
+
+    @Override
+    public void lock() {
+        try {
+            lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 加锁
+     *
+     * @param leaseTime 锁过期时间
+     * @param unit
+     */
+    public void lock(long leaseTime, TimeUnit unit) {
+        try {
+            lockInterruptibly(leaseTime, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        lockInterruptibly(-1, null);
+    }
+
+    /**
+     * 加锁可中断
+     *
+     * @param leaseTime 锁过期时间
+     * @param unit
+     * @throws InterruptedException
+     */
+    public void lockInterruptibly(long leaseTime, TimeUnit unit) throws InterruptedException {
+        acquire(-1, leaseTime, unit, Thread.currentThread().getId());
+    }
+
+    @Override
+    public boolean tryLock() {
+        try {
+            return acquire(0, -1, null, Thread.currentThread().getId());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        return tryLock(time, -1, unit);
+    }
+
+    /**
+     * 尝试获取锁
+     *
+     * @param time 尝试等待时间
+     * @param leaseTime 锁过期时间
+     * @param unit
+     * @return 获取锁返回true,反之超时未获取返回false
+     * @throws InterruptedException
+     */
+    public boolean tryLock(long time, long leaseTime, TimeUnit unit) throws InterruptedException {
+        long waitTime = time <= 0 || unit == null ? 0 : unit.toMillis(time);
+        return acquire(waitTime, leaseTime, unit, Thread.currentThread().getId());
+    }
+
+    /**
+     * 反复尝试获取多数节点，每次失败后随机等待一段时间
+     *
+     * @param waitTime 等待时间（毫秒），0不重试，小于0时一直等待
+     * @param leaseTime 锁过期时间，不指定时由看门狗续期
+     * @param unit
+     * @param threadId 锁持有者线程id
+     * @return 获取锁返回true,反之超时未获取返回false
+     * @throws InterruptedException
+     */
+    private boolean acquire(long waitTime, long leaseTime, TimeUnit unit, long threadId)
+        throws InterruptedException {
+        long current = System.currentTimeMillis();
+        while (true) {
+            if (tryAcquireQuorum(leaseTime, unit, threadId)) {
+                return true;
+            }
+            long delay = ThreadLocalRandom.current().nextLong(MAX_RETRY_DELAY) + 1;
+            if (waitTime == 0) {
+                return false;
+            }
+            if (waitTime > 0) {
+                long leftTime = waitTime - (System.currentTimeMillis() - current);
+                if (leftTime <= 0) {
+                    return false;
+                }
+                delay = Math.min(delay, leftTime);
+            }
+            Thread.sleep(delay);
+        }
+    }
+
+    /**
+     * 并行向所有节点加锁一次
+     *
+     * @return 有效期内获得多数节点返回true，否则释放所有节点后返回false
+     */
+    private boolean tryAcquireQuorum(long leaseTime, TimeUnit unit, long threadId) throws InterruptedException {
+        long leaseMillis = leaseTime <= 0 || unit == null ? watchdog.getLeaseTime() : unit.toMillis(leaseTime);
+        long start = System.currentTimeMillis();
+
+        CompletableFuture<Void> reached = new CompletableFuture<>();
+        AtomicInteger acquired = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[locks.length];
+        for (int i = 0; i < locks.length; i++) {
+            RedisLock lock = locks[i];
+            futures[i] = CompletableFuture.supplyAsync(() -> lock.tryAcquire(leaseTime, unit, threadId) == null,
+                executor).whenComplete((ok, e) -> {
+                    if (e == null && ok) {
+                        if (acquired.incrementAndGet() >= quorum) {
+                            reached.complete(null);
+                        }
+                    } else if (failed.incrementAndGet() > locks.length - quorum) {
+                        // 已不可能达到多数
+                        reached.complete(null);
+                    }
+                });
+        }
+        CompletableFuture<Void> all = CompletableFuture.allOf(futures);
+        pending.merge(threadId, all, CompletableFuture::allOf);
+
+        // 达到多数或确定失败即返回，不等待其余节点
+        try {
+            reached.get(leaseMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            // 超时按失败处理
+        }
+        long validity = leaseMillis - (System.currentTimeMillis() - start)
+            - (long) (leaseMillis * CLOCK_DRIFT_FACTOR) - 2;
+        if (acquired.get() >= quorum && validity > 0) {
+            return true;
+        }
+        release(threadId);
+        return false;
+    }
+
+    @Override
+    public void unlock() {
+        long threadId = Thread.currentThread().getId();
+        if (release(threadId) < quorum) {
+            throw new IllegalMonitorStateException(
+                "attempt to unlock lock, not locked by current thread by node id: " + locks[0].getId()
+                    + " thread-id: " + threadId);
+        }
+    }
+
+    /**
+     * 等待未完成的加锁请求后并行释放所有节点
+     *
+     * @return 释放时锁仍由当前持有者持有的节点数
+     */
+    private int release(long threadId) {
+        CompletableFuture<Void> acquiring = pending.remove(threadId);
+        CompletableFuture<Void> ready = acquiring == null ? CompletableFuture.completedFuture(null)
+            : acquiring.handle((r, e) -> null);
+        AtomicInteger held = new AtomicInteger();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[locks.length];
+        for (int i = 0; i < locks.length; i++) {
+            RedisLock lock = locks[i];
+            futures[i] = ready.thenRunAsync(() -> {
+                if (lock.unlockInner(UNLOCK_SCRIPT, UNLOCK_MESSAGE, lock.getLockNameBytes(threadId)) != null) {
+                    held.incrementAndGet();
+                }
+            }, executor);
+        }
+        try {
+            CompletableFuture.allOf(futures).join();
+        } catch (RuntimeException e) {
+            // 部分节点不可用，以仍持有的节点数为准
+        }
+        return held.get();
+    }
+
+    @Override
+    public Condition newCondition() {
+        return null;
+    }
+}
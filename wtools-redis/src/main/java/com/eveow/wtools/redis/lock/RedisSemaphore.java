@@ -0,0 +1,228 @@
+package com.eveow.wtools.redis.lock;
+
+import com.eveow.wtools.redis.common.LuaScript;
+import com.eveow.wtools.redis.common.ScriptArgs;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分布式信号量，许可数存放在一个字符串key中，获取和释放均为原子脚本<br/>
+ * 许可不足时订阅释放通知等待，释放n个许可时唤醒n个等待者；被唤醒的等待者许可仍不足时把唤醒转交给下一个等待者，
+ * 需要许可数不同的等待者混在一起时，许可数较少的等待者不会因队头无法满足而一直等待
+ *
+ * @author wangjianping
+ */
+public class RedisSemaphore {
+
+    /**
+     * 获取许可脚本
+     *
+     * <pre>
+     *  local value = redis.call('get', KEYS[1]);
+     *  if (value ~= false and tonumber(value) >= tonumber(ARGV[1])) then
+     *      redis.call('decrby', KEYS[1], ARGV[1]);
+     *      return 1;
+     *  end;
+     *  return 0;
+     * </pre>
+     */
+    private static final LuaScript ACQUIRE_SCRIPT = new LuaScript("local value = redis.call('get', KEYS[1]); if (value ~= false and tonumber(value) >= tonumber(ARGV[1])) then redis.call('decrby', KEYS[1], ARGV[1]); return 1; end; return 0;");
+
+    /**
+     * 释放许可脚本
+     *
+     * <pre>
+     *  redis.call('incrby', KEYS[1], ARGV[1]);
+     *  redis.call('publish', KEYS[2], ARGV[1]);
+     *  return 1;
+     * </pre>
+     */
+    private static final LuaScript RELEASE_SCRIPT = new LuaScript("redis.call('incrby', KEYS[1], ARGV[1]); redis.call('publish', KEYS[2], ARGV[1]); return 1;");
+
+    /**
+     * 初始化许可数脚本，已存在时不覆盖
+     *
+     * <pre>
+     *  if (redis.call('exists', KEYS[1]) == 0) then
+     *      redis.call('set', KEYS[1], ARGV[1]);
+     *      redis.call('publish', KEYS[2], ARGV[1]);
+     *      return 1;
+     *  end;
+     *  return 0;
+     * </pre>
+     */
+    private static final LuaScript SET_PERMITS_SCRIPT = new LuaScript("if (redis.call('exists', KEYS[1]) == 0) then redis.call('set', KEYS[1], ARGV[1]); redis.call('publish', KEYS[2], ARGV[1]); return 1; end; return 0;");
+
+    /**
+     * 等待释放通知的最长时间，防止通知丢失时一直等待
+     */
+    private static final long MAX_LISTEN_TIME = 30000L;
+
+    /**
+     * spring redis的连接池
+     */
+    private RedisConnectionFactory factory;
+
+    /**
+     * 编码后的信号量名称
+     */
+    private byte[] nameBytes;
+
+    /**
+     * 编码后的通道名
+     */
+    private byte[] channelBytes;
+
+    /**
+     * redis订阅对象，监控许可释放
+     */
+    private RedisLockSub lockSub;
+
+    public RedisSemaphore(RedisConnectionFactory factory, String name) {
+        this.factory = factory;
+        this.nameBytes = ScriptArgs.encode(name);
+        String channel = "redis_semaphore_channel:" + name;
+        this.channelBytes = ScriptArgs.encode(channel);
+        this.lockSub = new RedisLockSub(factory, channel);
+    }
+
+    /**
+     * 初始化许可数，已初始化过时不修改
+     *
+     * @param permits 许可数
+     * @return 初始化成功返回true
+     */
+    public boolean trySetPermits(int permits) {
+        return eval(SET_PERMITS_SCRIPT, permits);
+    }
+
+    /**
+     * 获取一个许可
+     */
+    public void acquire() throws InterruptedException {
+        acquire(1);
+    }
+
+    /**
+     * 获取permits个许可，不足时等待
+     */
+    public void acquire(int permits) throws InterruptedException {
+        checkPermits(permits);
+        if (tryAcquire(permits)) {
+            return;
+        }
+        // 订阅释放通知
+        lockSub.subscribe();
+        try {
+            String message = null;
+            while (!tryAcquire(permits)) {
+                // 被唤醒后许可仍不足，转交唤醒
+                lockSub.handoff(message);
+                message = lockSub.listen(MAX_LISTEN_TIME);
+            }
+        } finally {
+            lockSub.unsubscribe();
+        }
+    }
+
+    /**
+     * 尝试获取一个许可
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * 尝试获取permits个许可，不等待
+     */
+    public boolean tryAcquire(int permits) {
+        checkPermits(permits);
+        return eval(ACQUIRE_SCRIPT, permits);
+    }
+
+    /**
+     * 在超时时间内尝试获取permits个许可
+     *
+     * @return 获取成功返回true，超时返回false
+     */
+    public boolean tryAcquire(int permits, long timeout, TimeUnit unit) throws InterruptedException {
+        if (tryAcquire(permits)) {
+            return true;
+        }
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        // 订阅释放通知
+        lockSub.subscribe();
+        try {
+            while (true) {
+                long leftTime = deadline - System.currentTimeMillis();
+                if (leftTime <= 0) {
+                    return false;
+                }
+                String message = lockSub.listen(Math.min(leftTime, MAX_LISTEN_TIME));
+                if (tryAcquire(permits)) {
+                    return true;
+                }
+                // 被唤醒后许可仍不足，转交唤醒
+                lockSub.handoff(message);
+            }
+        } finally {
+            lockSub.unsubscribe();
+        }
+    }
+
+    /**
+     * 释放一个许可
+     */
+    public void release() {
+        release(1);
+    }
+
+    /**
+     * 释放permits个许可
+     */
+    public void release(int permits) {
+        checkPermits(permits);
+        eval(RELEASE_SCRIPT, permits);
+    }
+
+    /**
+     * 当前可用许可数
+     */
+    public int availablePermits() {
+        RedisConnection connection = factory.getConnection();
+        try {
+            byte[] value = connection.get(nameBytes);
+            return value == null ? 0 : Integer.parseInt(new String(value, StandardCharsets.UTF_8));
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * 执行脚本，脚本参数为：KEYS[1]信号量名称，KEYS[2]通道名，ARGV[1]许可数
+     */
+    private boolean eval(LuaScript script, int permits) {
+        RedisConnection connection = factory.getConnection();
+        try {
+            byte[][] args = ScriptArgs.args(3);
+            args[0] = nameBytes;
+            args[1] = channelBytes;
+            args[2] = ScriptArgs.encode(permits);
+            Boolean result = script.eval(connection, ReturnType.BOOLEAN, 2, args);
+            return Boolean.TRUE.equals(result);
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static void checkPermits(int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("permits must be positive");
+        }
+    }
+}
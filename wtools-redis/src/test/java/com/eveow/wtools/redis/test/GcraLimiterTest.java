@@ -0,0 +1,50 @@
+package com.eveow.wtools.redis.test;
+
+import com.eveow.wtools.redis.common.FakeTicker;
+import com.eveow.wtools.redis.common.GcraLimiter;
+import com.eveow.wtools.redis.common.Limiter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wangjianping
+ */
+public class GcraLimiterTest {
+
+    @Test
+    public void burstTest() {
+        FakeTicker ticker = new FakeTicker();
+        Limiter limiter = GcraLimiter.create(ticker, 10, 1, TimeUnit.SECONDS);
+
+        // 空闲时可突发1秒的令牌，超出的请求需要自己等待一个发放间隔
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(limiter.tryAcquire());
+        }
+        Assert.assertFalse(limiter.tryAcquire());
+        Assert.assertFalse(limiter.tryAcquire(50, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(limiter.tryAcquire(100, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(0.1, limiter.acquire(), 1E-6);
+        // 空闲2秒后恢复突发
+        ticker.advance(2, TimeUnit.SECONDS);
+        Assert.assertTrue(limiter.tryAcquire(10));
+    }
+
+    @Test
+    public void simulatedLoadTest() {
+        // 虚拟时间下以每秒1万次的请求压100秒，流速1000
+        FakeTicker ticker = new FakeTicker();
+        Limiter limiter = GcraLimiter.create(ticker, 1000, 1, TimeUnit.SECONDS);
+        long granted = 0;
+        for (int i = 0; i < 1000000; i++) {
+            if (limiter.tryAcquire()) {
+                granted++;
+            }
+            ticker.advance(100, TimeUnit.MICROSECONDS);
+        }
+        System.out.println(granted);
+        Assert.assertTrue(granted >= 100000 && granted <= 101001);
+    }
+}
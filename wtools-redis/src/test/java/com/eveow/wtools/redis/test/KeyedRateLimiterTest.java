@@ -0,0 +1,60 @@
+package com.eveow.wtools.redis.test;
+
+import com.eveow.wtools.redis.common.FakeTicker;
+import com.eveow.wtools.redis.common.KeyedRateLimiter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wangjianping
+ */
+public class KeyedRateLimiterTest {
+
+    @Test
+    public void perKeyTest() {
+        KeyedRateLimiter<String> limiter = KeyedRateLimiter.create(new FakeTicker(), 1, 10, TimeUnit.SECONDS);
+
+        // 新key为满桶，可突发获取10个令牌，再预支1个
+        for (int i = 0; i < 11; i++) {
+            Assert.assertTrue(limiter.tryAcquire("tenant-1"));
+        }
+        Assert.assertFalse(limiter.tryAcquire("tenant-1"));
+        // 各key互不影响
+        Assert.assertTrue(limiter.tryAcquire("tenant-2", 10));
+        Assert.assertEquals(2, limiter.size());
+    }
+
+    @Test
+    public void evictTest() {
+        // 每个key最多存储10个令牌，1毫秒即可恢复满桶
+        FakeTicker ticker = new FakeTicker();
+        KeyedRateLimiter<Integer> limiter = KeyedRateLimiter.create(ticker, 10000, 1, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 100000; i++) {
+            Assert.assertTrue(limiter.tryAcquire(i));
+        }
+        ticker.advance(10, TimeUnit.MILLISECONDS);
+        limiter.evictIdle();
+        Assert.assertEquals(0, limiter.size());
+        // 清理后的key重新按满桶处理
+        Assert.assertTrue(limiter.tryAcquire(1, 10));
+    }
+
+    @Test
+    public void boundedTest() throws Exception {
+        // 百万个key陆续访问，空闲的key在扩容前被清理，记录数只随活跃key增长
+        KeyedRateLimiter<Integer> limiter = KeyedRateLimiter.create(1000, 1, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000000; i++) {
+            limiter.tryAcquire(i);
+            if (i % 100000 == 0) {
+                Thread.sleep(5);
+            }
+        }
+        long cost = System.nanoTime() - start;
+        System.out.println(limiter.size() + " keys, " + (cost / 1000000) + " ns/op");
+        Assert.assertTrue(limiter.size() < 1000000);
+    }
+}
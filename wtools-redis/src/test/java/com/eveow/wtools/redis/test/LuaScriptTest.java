@@ -0,0 +1,52 @@
+package com.eveow.wtools.redis.test;
+
+import com.eveow.wtools.redis.common.LuaScript;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * @author wangjianping
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = Application.class)
+public class LuaScriptTest {
+
+    private static final LuaScript SCRIPT = new LuaScript("return tonumber(ARGV[1]) + 1;");
+
+    @Autowired
+    private RedisConnectionFactory factory;
+
+    @Test
+    public void sha1Test() {
+        RedisConnection connection = factory.getConnection();
+        try {
+            Assert.assertEquals(connection.scriptLoad(SCRIPT.getScript().getBytes()), SCRIPT.getSha1());
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void noScriptTest() {
+        RedisConnection connection = factory.getConnection();
+        try {
+            // 清空脚本缓存后回退EVAL，再次调用走EVALSHA
+            connection.scriptFlush();
+            Long first = SCRIPT.eval(connection, ReturnType.INTEGER, 0, "1".getBytes());
+            Long second = SCRIPT.eval(connection, ReturnType.INTEGER, 0, "2".getBytes());
+            Assert.assertEquals(Long.valueOf(2), first);
+            Assert.assertEquals(Long.valueOf(3), second);
+            Assert.assertTrue(connection.scriptExists(SCRIPT.getSha1()).get(0));
+        } finally {
+            connection.close();
+        }
+    }
+}
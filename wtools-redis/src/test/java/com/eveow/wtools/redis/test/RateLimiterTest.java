@@ -1,12 +1,19 @@
 package com.eveow.wtools.redis.test;
 
+import com.eveow.wtools.redis.common.FakeTicker;
 import com.eveow.wtools.redis.common.RateLimiter;
 
+import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * @author wangjianping
  */
@@ -55,4 +62,127 @@ public class RateLimiterTest {
             e.printStackTrace();
         }
     }
+
+    @Test
+    public void concurrentTest() throws Exception {
+        RateLimiter limiter = RateLimiter.create(2000);
+
+        // 32个线程持续争抢2秒，获取到的令牌数应与流速一致
+        AtomicLong acquired = new AtomicLong();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        CountDownLatch latch = new CountDownLatch(32);
+        for (int i = 0; i < 32; i++) {
+            new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    if (limiter.tryAcquire()) {
+                        acquired.incrementAndGet();
+                    }
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        System.out.println(acquired.get());
+        Assert.assertTrue(Math.abs(acquired.get() - 4000) <= 100);
+    }
+
+    @Test
+    public void throughputTest() throws Exception {
+        // 流速足够大时不等待，只衡量多线程下获取令牌本身的开销
+        RateLimiter limiter = RateLimiter.create(1E+12);
+        int threads = Runtime.getRuntime().availableProcessors() * 2;
+        int loops = 1000000;
+
+        CountDownLatch latch = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                for (int j = 0; j < loops; j++) {
+                    limiter.acquire();
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        long cost = System.nanoTime() - start;
+        System.out.println(threads + " threads, " + (cost / ((long) threads * loops)) + " ns/op");
+    }
+
+    @Test
+    public void reserveTest() {
+        RateLimiter limiter = RateLimiter.create(10);
+
+        // 桶中无存储令牌，第一次不等待，之后每个令牌预支100毫秒
+        Assert.assertEquals(0, limiter.reserve(1));
+        long wait = limiter.reserve(1);
+        Assert.assertTrue(wait > 90000 && wait <= 100000);
+        wait = limiter.reserve(5);
+        Assert.assertTrue(wait > 190000 && wait <= 200000);
+    }
+
+    @Test
+    public void acquireAsyncTest() throws Exception {
+        RateLimiter limiter = RateLimiter.create(10);
+
+        long start = System.currentTimeMillis();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[11];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = limiter.acquireAsync();
+        }
+        // 调用线程不阻塞
+        Assert.assertTrue(System.currentTimeMillis() - start < 100);
+        CompletableFuture.allOf(futures).get();
+        long cost = System.currentTimeMillis() - start;
+        System.out.println(cost);
+        Assert.assertTrue(cost >= 950);
+    }
+
+    @Test
+    public void warmUpTest() {
+        // 稳定间隔100毫秒，最冷300毫秒，阈值5个令牌，最大容量10个令牌
+        FakeTicker ticker = new FakeTicker();
+        RateLimiter limiter = RateLimiter.createWarmingUp(ticker, 10, 1, TimeUnit.SECONDS, 3.0);
+
+        // 初始为最冷，每次等待的是上一个令牌的发放间隔，从280毫秒逐步降到稳定的100毫秒
+        double[] waits = {0, 0.28, 0.24, 0.2, 0.16, 0.12, 0.1, 0.1};
+        for (double wait : waits) {
+            Assert.assertEquals(wait, limiter.acquire(), 1E-6);
+        }
+    }
+
+    @Test
+    public void coolDownTest() {
+        FakeTicker ticker = new FakeTicker();
+        RateLimiter limiter = RateLimiter.createWarmingUp(ticker, 10, 1, TimeUnit.SECONDS, 3.0);
+        for (int i = 0; i < 8; i++) {
+            limiter.acquire();
+        }
+        // 还剩2个存储令牌，预支的100毫秒到期后再空闲500毫秒，冷却速度为每100毫秒1个，存储令牌恢复到7个
+        ticker.advance(600, TimeUnit.MILLISECONDS);
+        double[] waits = {0, 0.16, 0.12, 0.1};
+        for (double wait : waits) {
+            Assert.assertEquals(wait, limiter.acquire(), 1E-6);
+        }
+        // 空闲超过预热时间后恢复为最冷
+        ticker.advance(2, TimeUnit.SECONDS);
+        Assert.assertEquals(0, limiter.acquire(), 1E-6);
+        Assert.assertEquals(0.28, limiter.acquire(), 1E-6);
+    }
+
+    @Test
+    public void simulatedLoadTest() {
+        // 虚拟时间下以每秒1万次的请求压100秒，流速1000，通过数应为100秒的令牌加上初始的1秒突发
+        FakeTicker ticker = new FakeTicker();
+        RateLimiter limiter = RateLimiter.create(ticker, 1000, 1, TimeUnit.SECONDS);
+        ticker.advance(1, TimeUnit.SECONDS);
+        long granted = 0;
+        for (int i = 0; i < 1000000; i++) {
+            if (limiter.tryAcquire()) {
+                granted++;
+            }
+            ticker.advance(100, TimeUnit.MICROSECONDS);
+        }
+        System.out.println(granted);
+        Assert.assertTrue(granted >= 100000 && granted <= 101001);
+    }
 }
@@ -1,19 +1,34 @@
 package com.eveow.wtools.redis.test;
 
 import com.eveow.wtools.redis.RedisTools;
+import com.eveow.wtools.redis.common.FakeTicker;
+import com.eveow.wtools.redis.lock.RedisCoalescingLock;
+import com.eveow.wtools.redis.lock.RedisFairLock;
 import com.eveow.wtools.redis.lock.RedisLock;
+import com.eveow.wtools.redis.lock.RedisLockAsync;
+import com.eveow.wtools.redis.lock.RedisLockWatchdog;
+import com.eveow.wtools.redis.lock.RedisMultiLock;
+import com.eveow.wtools.redis.lock.RedisReadWriteLock;
 
+import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author wangjianping
@@ -96,6 +111,244 @@ public class RedisLockTest {
         }
     }
 
+    @Test
+    public void asyncLockTest() throws Exception {
+        RedisTools tools = new RedisTools(factory);
+        RedisLockAsync lock = tools.getAsyncLock("yan-async-lock");
+
+        // 1000个等待中的加锁请求只占用少量线程
+        AtomicInteger counter = new AtomicInteger();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[1000];
+        for (int i = 0; i < futures.length; i++) {
+            final long ownerId = i;
+            futures[i] = lock.lockAsync(10, TimeUnit.SECONDS, ownerId)
+                .thenRun(counter::incrementAndGet)
+                .thenCompose(v -> lock.unlockAsync(ownerId));
+        }
+        CompletableFuture.allOf(futures).get(60, TimeUnit.SECONDS);
+        Assert.assertEquals(1000, counter.get());
+
+        // 同一线程上的不同持有者互斥
+        Assert.assertTrue(lock.tryLockAsync(1L).get(5, TimeUnit.SECONDS));
+        Assert.assertFalse(lock.tryLockAsync(2L).get(5, TimeUnit.SECONDS));
+
+        // 等待中取消的请求不再获取锁，lockAsync和tryLockAsync都支持取消
+        CompletableFuture<Void> cancelled = lock.lockAsync(10, TimeUnit.SECONDS, 3L);
+        CompletableFuture<Boolean> cancelledTry = lock.tryLockAsync(10, TimeUnit.SECONDS, 4L);
+        Thread.sleep(200);
+        cancelled.cancel(false);
+        cancelledTry.cancel(false);
+        lock.unlockAsync(1L).get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(lock.tryLockAsync(1, TimeUnit.SECONDS, 2L).get(5, TimeUnit.SECONDS));
+        lock.unlockAsync(2L).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void coalescingLockTest() throws Exception {
+        RedisTools tools = new RedisTools(factory);
+        RedisCoalescingLock lock = tools.getCoalescingLock("yan-coalescing-lock");
+
+        // 200个线程只有本地队头竞争redis锁
+        int[] counter = new int[1];
+        ExecutorService executorService = Executors.newFixedThreadPool(200);
+        CountDownLatch latch = new CountDownLatch(2000);
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < 2000; i++) {
+            executorService.execute(() -> {
+                lock.lock();
+                try {
+                    counter[0]++;
+                } finally {
+                    lock.unlock();
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        System.out.println(System.currentTimeMillis() - time);
+        executorService.shutdown();
+        Assert.assertEquals(2000, counter[0]);
+    }
+
+    @Test
+    public void readWriteLockTest() throws Exception {
+        RedisTools tools = new RedisTools(factory);
+        RedisReadWriteLock rwLock = tools.getReadWriteLock("yan-rw-lock");
+
+        // 读锁互不阻塞
+        AtomicInteger readers = new AtomicInteger();
+        AtomicInteger maxReaders = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            new Thread(() -> {
+                rwLock.readLock().lock();
+                try {
+                    maxReaders.accumulateAndGet(readers.incrementAndGet(), Math::max);
+                    Thread.sleep(500);
+                    readers.decrementAndGet();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } finally {
+                    rwLock.readLock().unlock();
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        Assert.assertTrue(maxReaders.get() > 1);
+
+        // 写锁独占，持有写锁时可获取读锁
+        rwLock.writeLock().lock();
+        try {
+            Thread reader = new Thread(() -> Assert.assertFalse(rwLock.readLock().tryLock()));
+            reader.start();
+            reader.join();
+            Assert.assertTrue(rwLock.readLock().tryLock());
+            rwLock.readLock().unlock();
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    @Test
+    public void fairLockTest() throws Exception {
+        RedisTools tools = new RedisTools(factory);
+        RedisFairLock lock = tools.getFairLock("yan-fair-lock");
+
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> expected = new ArrayList<>();
+        CountDownLatch latch = new CountDownLatch(5);
+        lock.lock();
+        try {
+            // 按顺序进入等待队列
+            for (int i = 0; i < 5; i++) {
+                final int index = i;
+                expected.add(index);
+                new Thread(() -> {
+                    lock.lock();
+                    try {
+                        order.add(index);
+                    } finally {
+                        lock.unlock();
+                        latch.countDown();
+                    }
+                }).start();
+                Thread.sleep(200);
+            }
+        } finally {
+            lock.unlock();
+        }
+        latch.await();
+        Assert.assertEquals(expected, order);
+    }
+
+    @Test
+    public void multiLockTest() throws Exception {
+        RedisTools tools = new RedisTools(factory);
+        RedisMultiLock multiLock = tools.getMultiLock("{yan}-multi-1", "{yan}-multi-2", "{yan}-multi-3");
+        RedisLock single = tools.getLock("{yan}-multi-2");
+
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        new Thread(() -> {
+            single.lock();
+            try {
+                locked.countDown();
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            } finally {
+                single.unlock();
+                done.countDown();
+            }
+        }).start();
+        locked.await();
+
+        // 任一key被占用时一个都不获取
+        Assert.assertFalse(multiLock.tryLock());
+        Assert.assertTrue(tools.getLock("{yan}-multi-1").tryLock(0, 1, TimeUnit.SECONDS));
+
+        // 等待占用的key释放
+        Assert.assertTrue(multiLock.tryLock(5, 10, TimeUnit.SECONDS));
+        try {
+            Thread other = new Thread(() -> Assert.assertFalse(single.tryLock()));
+            other.start();
+            other.join();
+        } finally {
+            multiLock.unlock();
+        }
+        done.await();
+    }
+
+    @Test
+    public void multiUnlockTest() throws Exception {
+        RedisTools tools = new RedisTools(factory);
+        RedisMultiLock multiLock = tools.getMultiLock("{yan}-multi-4", "{yan}-multi-5", "{yan}-multi-6");
+        Assert.assertTrue(multiLock.tryLock(0, 10, TimeUnit.SECONDS));
+
+        // 模拟其中一个key租约过期后被其他客户端占用
+        RedisConnection connection = factory.getConnection();
+        try {
+            connection.del("{yan}-multi-5".getBytes(StandardCharsets.UTF_8));
+        } finally {
+            connection.close();
+        }
+        RedisLock other = tools.getLock("{yan}-multi-5");
+        Assert.assertTrue(other.tryLock(0, 10, TimeUnit.SECONDS, 1L));
+
+        // 解锁报告异常，但仍持有的key已释放
+        try {
+            multiLock.unlock();
+            Assert.fail("unlock should report the key taken by another client");
+        } catch (IllegalMonitorStateException e) {
+            // 预期
+        }
+        RedisLock check = tools.getLock("{yan}-multi-4");
+        Assert.assertTrue(check.tryLock(0, 10, TimeUnit.SECONDS, 1L));
+        check.unlock(1L);
+        check = tools.getLock("{yan}-multi-6");
+        Assert.assertTrue(check.tryLock(0, 10, TimeUnit.SECONDS, 1L));
+        check.unlock(1L);
+
+        // 其他客户端的锁不受影响
+        Assert.assertFalse(tools.getLock("{yan}-multi-5").tryLock(0, 10, TimeUnit.SECONDS, 1L));
+        other.unlock(1L);
+    }
+
+    @Test
+    public void tickerTest() throws Exception {
+        RedisLock lock = new RedisLock(factory, "yan-ticker-lock");
+        lock.lock();
+        try {
+            // 每次读取时间前进2秒，等待1秒的尝试不必真实等待即超时返回
+            RedisLock other = new RedisLock(factory, "yan-ticker-lock");
+            other.setTicker(new FakeTicker().setAutoIncrementStep(2, TimeUnit.SECONDS));
+            long start = System.currentTimeMillis();
+            Assert.assertFalse(other.tryLock(1, TimeUnit.SECONDS));
+            Assert.assertTrue(System.currentTimeMillis() - start < 500);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Test
+    public void watchdogTest() throws Exception {
+        RedisLockWatchdog.getInstance(factory).setLeaseTime(3, TimeUnit.SECONDS);
+        RedisLock lock = new RedisLock(factory, "yan-watchdog-lock");
+
+        lock.lock();
+        try {
+            // 超过过期时间后锁仍由看门狗续期持有
+            Thread.sleep(10000);
+            Thread other = new Thread(() -> Assert.assertFalse(lock.tryLock()));
+            other.start();
+            other.join();
+        } finally {
+            lock.unlock();
+            RedisLockWatchdog.getInstance(factory).setLeaseTime(30, TimeUnit.SECONDS);
+        }
+    }
+
     @Test
     public void lockTest() {
         RedisLock lock = new RedisLock(factory, "yan-lock");
@@ -0,0 +1,122 @@
+package com.eveow.wtools.redis.test;
+
+import com.eveow.wtools.redis.RedisTools;
+import com.eveow.wtools.redis.common.Limiter;
+import com.eveow.wtools.redis.common.RedisRateLimiter;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wangjianping
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = Application.class)
+public class RedisRateLimiterTest {
+
+    @Autowired
+    private RedisConnectionFactory factory;
+
+    @Test
+    public void acquireTest() throws Exception {
+        RedisTools tools = new RedisTools(factory);
+        RedisRateLimiter limiter = tools.getRateLimiter("yan-limiter", 20);
+
+        // 多个限流器对象共享同一个桶，先耗尽满桶的20个令牌
+        RedisRateLimiter other = tools.getRateLimiter("yan-limiter", 20);
+        while (other.tryAcquire()) {
+        }
+
+        long start = System.currentTimeMillis();
+        CountDownLatch latch = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            RedisRateLimiter each = i % 2 == 0 ? limiter : other;
+            new Thread(() -> {
+                for (int j = 0; j < 10; j++) {
+                    each.acquire();
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        // 40个令牌按每秒20个生成，约需2秒
+        long cost = System.currentTimeMillis() - start;
+        System.out.println(cost);
+        Assert.assertTrue(cost >= 1800);
+    }
+
+    @Test
+    public void tryAcquireTest() {
+        RedisRateLimiter limiter = RedisRateLimiter.create(factory, "yan-try-limiter", 5);
+        while (limiter.tryAcquire()) {
+        }
+        // 每200毫秒生成一个令牌
+        Assert.assertTrue(limiter.tryAcquire(300, TimeUnit.MILLISECONDS));
+        Assert.assertFalse(limiter.tryAcquire(50, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void leasingTest() throws Exception {
+        RedisRateLimiter limiter = RedisRateLimiter.create(factory, "yan-lease-limiter", 1000);
+        limiter.setLeasing(100, TimeUnit.MILLISECONDS);
+
+        // 满桶1000个令牌，再获取2000个约需2秒，多数获取在本地完成
+        long start = System.currentTimeMillis();
+        CountDownLatch latch = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            new Thread(() -> {
+                for (int j = 0; j < 750; j++) {
+                    limiter.acquire();
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        long cost = System.currentTimeMillis() - start;
+        System.out.println(cost);
+        Assert.assertTrue(cost >= 1800);
+        limiter.close();
+    }
+
+    @Test
+    public void gcraTest() {
+        RedisTools tools = new RedisTools(factory);
+        Limiter limiter = tools.getGcraLimiter("yan-gcra-limiter", 20);
+        while (limiter.tryAcquire()) {
+        }
+
+        // 突发耗尽后每50毫秒发放一个
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 20; i++) {
+            limiter.acquire();
+        }
+        long cost = System.currentTimeMillis() - start;
+        System.out.println(cost);
+        Assert.assertTrue(cost >= 900);
+    }
+
+    @Test
+    public void slidingWindowTest() {
+        RedisTools tools = new RedisTools(factory);
+        Limiter limiter = tools.getSlidingWindowLimiter("yan-window-limiter", 20, 1, TimeUnit.SECONDS);
+        while (limiter.tryAcquire()) {
+        }
+
+        // 窗口已满，任意1秒内最多通过20个
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 20; i++) {
+            limiter.acquire();
+        }
+        long cost = System.currentTimeMillis() - start;
+        System.out.println(cost);
+        Assert.assertTrue(cost >= 900);
+    }
+}
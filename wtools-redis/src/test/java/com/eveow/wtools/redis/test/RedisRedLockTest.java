@@ -0,0 +1,97 @@
+package com.eveow.wtools.redis.test;
+
+import com.eveow.wtools.redis.lock.RedisRedLock;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 需要本地启动三个独立的redis-server，端口6379、6380、6381
+ *
+ * @author wangjianping
+ */
+public class RedisRedLockTest {
+
+    private List<RedisConnectionFactory> factories = new ArrayList<>();
+
+    @Before
+    public void init() {
+        for (int port = 6379; port <= 6381; port++) {
+            JedisConnectionFactory factory = new JedisConnectionFactory();
+            factory.setHostName("127.0.0.1");
+            factory.setPort(port);
+            factory.afterPropertiesSet();
+            factories.add(factory);
+        }
+    }
+
+    @Test
+    public void redLockTest() throws Exception {
+        RedisRedLock lock = new RedisRedLock(factories, "yan-redlock");
+
+        AtomicInteger current = new AtomicInteger();
+        AtomicInteger max = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            new Thread(() -> {
+                try {
+                    if (lock.tryLock(10, 5, TimeUnit.SECONDS)) {
+                        try {
+                            max.accumulateAndGet(current.incrementAndGet(), Math::max);
+                            Thread.sleep(50);
+                            current.decrementAndGet();
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } finally {
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        Assert.assertEquals(1, max.get());
+    }
+
+    @Test
+    public void reentrantTest() throws Exception {
+        RedisRedLock lock = new RedisRedLock(factories, "yan-redlock-reentrant");
+        lock.lock();
+        try {
+            Assert.assertTrue(lock.tryLock());
+            lock.unlock();
+            boolean[] acquired = new boolean[1];
+            Thread other = new Thread(() -> acquired[0] = lock.tryLock());
+            other.start();
+            other.join();
+            Assert.assertFalse(acquired[0]);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Test
+    public void lostLockTest() throws Exception {
+        RedisRedLock lock = new RedisRedLock(factories, "yan-redlock-lost");
+        Assert.assertTrue(lock.tryLock(0, 200, TimeUnit.MILLISECONDS));
+        // 所有节点上的锁都已过期，解锁不能视为仍持有
+        Thread.sleep(500);
+        try {
+            lock.unlock();
+            Assert.fail("unlock should fail after the lock expired on every node");
+        } catch (IllegalMonitorStateException e) {
+            // 预期
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.eveow.wtools.redis.test;
+
+import com.eveow.wtools.redis.RedisTools;
+import com.eveow.wtools.redis.lock.RedisCountDownLatch;
+import com.eveow.wtools.redis.lock.RedisSemaphore;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author wangjianping
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = Application.class)
+public class RedisSemaphoreTest {
+
+    @Autowired
+    private RedisConnectionFactory factory;
+
+    @Test
+    public void semaphoreTest() throws Exception {
+        RedisTools tools = new RedisTools(factory);
+        RedisSemaphore semaphore = tools.getSemaphore("yan-semaphore");
+        semaphore.trySetPermits(3);
+
+        // 最多3个线程同时持有许可
+        AtomicInteger current = new AtomicInteger();
+        AtomicInteger max = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            new Thread(() -> {
+                try {
+                    semaphore.acquire();
+                    try {
+                        max.accumulateAndGet(current.incrementAndGet(), Math::max);
+                        Thread.sleep(100);
+                        current.decrementAndGet();
+                    } finally {
+                        semaphore.release();
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } finally {
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        Assert.assertEquals(3, max.get());
+        Assert.assertEquals(3, semaphore.availablePermits());
+        Assert.assertFalse(semaphore.tryAcquire(4, 200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void mixedPermitsTest() throws Exception {
+        RedisTools tools = new RedisTools(factory);
+        RedisSemaphore semaphore = tools.getSemaphore("yan-semaphore-mixed-" + System.currentTimeMillis());
+        Assert.assertTrue(semaphore.trySetPermits(0));
+
+        // A需要3个许可先排队，B需要1个许可排在后面
+        CountDownLatch acquiredA = new CountDownLatch(1);
+        new Thread(() -> {
+            try {
+                semaphore.acquire(3);
+                acquiredA.countDown();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }).start();
+        Thread.sleep(200);
+        boolean[] acquiredB = new boolean[1];
+        long[] elapsed = new long[1];
+        Thread threadB = new Thread(() -> {
+            long start = System.currentTimeMillis();
+            try {
+                acquiredB[0] = semaphore.tryAcquire(1, 10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            elapsed[0] = System.currentTimeMillis() - start;
+        });
+        threadB.start();
+        Thread.sleep(200);
+
+        // 释放1个许可，A被唤醒后不足，唤醒转交给B
+        semaphore.release(1);
+        threadB.join();
+        Assert.assertTrue(acquiredB[0]);
+        Assert.assertTrue(elapsed[0] < 2000);
+
+        semaphore.release(3);
+        Assert.assertTrue(acquiredA.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, semaphore.availablePermits());
+    }
+
+    @Test
+    public void countDownLatchTest() throws Exception {
+        RedisTools tools = new RedisTools(factory);
+        RedisCountDownLatch latch = tools.getCountDownLatch("yan-latch");
+        Assert.assertTrue(latch.trySetCount(5));
+
+        for (int i = 0; i < 5; i++) {
+            new Thread(() -> {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                latch.countDown();
+            }).start();
+        }
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, latch.getCount());
+    }
+}
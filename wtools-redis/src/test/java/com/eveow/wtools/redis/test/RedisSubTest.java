@@ -2,6 +2,7 @@ package com.eveow.wtools.redis.test;
 
 import com.eveow.wtools.redis.lock.RedisLockSub;
 
+import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,6 +14,7 @@ import org.springframework.test.context.junit4.SpringRunner;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author wangjianping
@@ -56,6 +58,73 @@ public class RedisSubTest {
         }
     }
 
+    @Test
+    public void sharedConnectionTest() throws Exception {
+        // 1000个通道共用一个订阅连接和监听线程
+        RedisLockSub[] subs = new RedisLockSub[1000];
+        for (int i = 0; i < subs.length; i++) {
+            subs[i] = new RedisLockSub(factory, "yan-channel-" + i);
+            subs[i].subscribe();
+        }
+        try {
+            new Thread(() -> {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                RedisConnection connection = factory.getConnection();
+                try {
+                    connection.publish("yan-channel-999".getBytes(), "1".getBytes());
+                } finally {
+                    connection.close();
+                }
+            }).start();
+            long time = System.currentTimeMillis();
+            System.out.println(subs[999].listen(5000));
+            System.out.println(System.currentTimeMillis() - time);
+        } finally {
+            for (RedisLockSub sub : subs) {
+                sub.unsubscribe();
+            }
+        }
+    }
+
+    @Test
+    public void wakeOneTest() throws Exception {
+        RedisLockSub sub = new RedisLockSub(factory, "yan-channel");
+        sub.subscribe();
+
+        // 10个线程等待，发布3条消息只应唤醒3个
+        AtomicInteger woken = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            new Thread(() -> {
+                try {
+                    if (sub.listen(3000) != null) {
+                        woken.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } finally {
+                    latch.countDown();
+                }
+            }).start();
+        }
+        Thread.sleep(500);
+        RedisConnection connection = factory.getConnection();
+        try {
+            for (int i = 0; i < 3; i++) {
+                connection.publish("yan-channel".getBytes(), "0".getBytes());
+            }
+        } finally {
+            connection.close();
+        }
+        latch.await();
+        sub.unsubscribe();
+        Assert.assertEquals(3, woken.get());
+    }
+
     @Test
     public void baseTest() throws Exception {
 
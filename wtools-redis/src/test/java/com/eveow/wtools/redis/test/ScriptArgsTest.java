@@ -0,0 +1,39 @@
+package com.eveow.wtools.redis.test;
+
+import com.eveow.wtools.redis.common.ScriptArgs;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author wangjianping
+ */
+public class ScriptArgsTest {
+
+    @Test
+    public void encodeTest() {
+        long[] values = { 0, 7, -7, 30000, -30000, Long.MAX_VALUE, Long.MIN_VALUE };
+        for (long value : values) {
+            Assert.assertEquals(String.valueOf(value), new String(ScriptArgs.encode(value)));
+            Assert.assertEquals("node:" + value, new String(ScriptArgs.concat("node:".getBytes(), value)));
+        }
+    }
+
+    @Test
+    public void reuseTest() {
+        // 同一线程重复编码同一数值不再分配
+        Assert.assertSame(ScriptArgs.encode(30000L), ScriptArgs.encode(30000L));
+        Assert.assertSame(ScriptArgs.args(3), ScriptArgs.args(3));
+        Assert.assertEquals(3, ScriptArgs.args(3).length);
+    }
+
+    @Test
+    public void allocationTest() {
+        long time = System.nanoTime();
+        for (int i = 0; i < 10000000; i++) {
+            byte[][] args = ScriptArgs.args(3);
+            args[1] = ScriptArgs.encode(30000L);
+        }
+        System.out.println((System.nanoTime() - time) / 10000000.0 + "ns/op");
+    }
+}
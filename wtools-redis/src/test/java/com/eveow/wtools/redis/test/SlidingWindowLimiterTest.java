@@ -0,0 +1,50 @@
+package com.eveow.wtools.redis.test;
+
+import com.eveow.wtools.redis.common.FakeTicker;
+import com.eveow.wtools.redis.common.Limiter;
+import com.eveow.wtools.redis.common.SlidingWindowLimiter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wangjianping
+ */
+public class SlidingWindowLimiterTest {
+
+    @Test
+    public void windowTest() {
+        FakeTicker ticker = new FakeTicker();
+        Limiter limiter = SlidingWindowLimiter.create(ticker, 10, 1, TimeUnit.SECONDS);
+
+        Assert.assertTrue(limiter.tryAcquire(10));
+        Assert.assertFalse(limiter.tryAcquire());
+        // 进入下一个窗口时上一个窗口的10个仍全部计入
+        ticker.advance(1, TimeUnit.SECONDS);
+        Assert.assertFalse(limiter.tryAcquire());
+        // 每滑过100毫秒滑出1个
+        ticker.advance(100, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(limiter.tryAcquire());
+        Assert.assertFalse(limiter.tryAcquire());
+        Assert.assertTrue(limiter.tryAcquire(100, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(0.1, limiter.acquire(), 1E-6);
+    }
+
+    @Test
+    public void simulatedLoadTest() {
+        // 虚拟时间下以每秒1万次的请求压100秒，每秒最多1000个
+        FakeTicker ticker = new FakeTicker();
+        Limiter limiter = SlidingWindowLimiter.create(ticker, 1000, 1, TimeUnit.SECONDS);
+        long granted = 0;
+        for (int i = 0; i < 1000000; i++) {
+            if (limiter.tryAcquire()) {
+                granted++;
+            }
+            ticker.advance(100, TimeUnit.MICROSECONDS);
+        }
+        System.out.println(granted);
+        Assert.assertTrue(granted >= 99000 && granted <= 100000);
+    }
+}
@@ -1,17 +1,28 @@
 package com.eveow.wtools.util.hash;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
-import com.google.common.base.Charsets;
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hashing;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * 一致性hash
- * 
+ * 一致性hash<br/>
+ * hash环为排好序的int数组和对应的节点下标数组，查找时二分查找，不装箱、不分配对象<br/>
+ * 环创建后不再修改，增删节点时加锁按新的节点列表构建新环，再通过volatile引用整体替换；
+ * 查找只读取一次当前环，不加锁，也不会被增删节点阻塞<br/>
+ * 节点的虚拟节点数为virtualNodeNum * 权重，虚拟节点按序号命名，调整权重时只增减末尾的虚拟节点，其余虚拟节点位置不变<br/>
+ * 有界负载模式（{@link #setBoundedLoad(double)}）：调用方通过{@link #incrementLoad}、{@link #decrementLoad}上报各节点的在途负载，
+ * 节点负载上限为 (1 + ε) * (总负载 + 1) * 权重 / 总权重，查找时沿环顺时针跳过已达上限的节点，
+ * 热点key和不均匀的虚拟节点分布不会把单个节点压到远超平均的负载；负载为原子计数，查找仍不加锁，
+ * 总负载在查找时累加环上各节点的计数得到，不含已移除的节点。
+ * 移除节点时负载计数转为待清理，移除前发出的请求完成时仍扣减同一个计数，归零后删除；在此之前重新加入时沿用
+ *
  * @author wangjianping
  */
-public class ConsistentHash<T> {
+public class ConsistentHash<T> implements HashRouter<T> {
 
     /**
      * 虚拟节点连接符
@@ -26,21 +37,31 @@ public class ConsistentHash<T> {
     /**
      * 虚拟节点数
      */
-    private int virtualNodeNum;
+    private final int virtualNodeNum;
 
     /**
-     * hash函数
+     * hash环，增删节点时整体替换
      */
-    private HashFunction hashFunction;
+    private volatile Ring ring;
 
     /**
-     * 节点和虚拟节点map，看做hash环
+     * 环上各节点的在途负载，重建hash环时沿用
      */
-    private TreeMap<Integer, T> nodeMap;
+    private final Map<Object, AtomicLong> loads = new ConcurrentHashMap<>();
+
+    /**
+     * 已移除但仍有在途请求的节点负载，归零后删除
+     */
+    private final Map<Object, AtomicLong> retiredLoads = new ConcurrentHashMap<>();
+
+    /**
+     * 有界负载系数1 + ε，为0时不限制负载
+     */
+    private volatile double loadFactor;
 
     /**
      * 构造函数
-     * 
+     *
      * @param nodes
      */
     public ConsistentHash(T... nodes) {
@@ -49,75 +70,344 @@ public class ConsistentHash<T> {
 
     /**
      * 构造函数
-     * 
+     *
      * @param virtual
      * @param nodes
      */
     public ConsistentHash(int virtual, T... nodes) {
         this.virtualNodeNum = virtual;
-        this.hashFunction = Hashing.murmur3_32();
 
         // 构建节点
-        nodeMap = new TreeMap<>();
+        List<T> members = new ArrayList<>();
         if (nodes != null) {
-            for (T node: nodes) {
-                addNode(node);
+            for (T node : nodes) {
+                if (!members.contains(node)) {
+                    members.add(node);
+                }
             }
         }
+        int[] weights = new int[members.size()];
+        Arrays.fill(weights, 1);
+        this.ring = buildRing(members.toArray(), weights);
     }
 
     /**
      * 获取对应的节点
-     * 
+     *
      * @param v
      * @return
      */
+    @Override
+    @SuppressWarnings("unchecked")
     public T getNode(Object v) {
-        Map.Entry<Integer, T> nodeEntry = nodeMap.higherEntry(hash(v.toString()));
-        if (nodeEntry == null) {
-            nodeEntry = nodeMap.firstEntry();
+        // 只读取一次，整个查找都在同一个环上完成
+        Ring current = ring;
+        int index = current.find(hash(v.toString()));
+        if (index < 0) {
+            return null;
         }
-        if (nodeEntry != null) {
-            return nodeEntry.getValue();
+        double factor = loadFactor;
+        if (factor > 0) {
+            index = boundedIndex(current, index, factor);
         }
-        return null;
+        return (T) current.nodes[current.owners[index]];
+    }
+
+    /**
+     * 开启有界负载模式
+     *
+     * @param epsilon 允许超出平均负载的比例，如0.25表示不超过平均负载的1.25倍；小于等于0时关闭
+     */
+    public void setBoundedLoad(double epsilon) {
+        this.loadFactor = epsilon > 0 ? 1 + epsilon : 0;
+    }
+
+    /**
+     * 节点的在途负载加一，请求发往该节点时调用
+     */
+    public void incrementLoad(T node) {
+        AtomicLong load = getLoadCounter(node);
+        if (load != null) {
+            load.incrementAndGet();
+        }
+    }
+
+    /**
+     * 节点的在途负载减一，请求完成时调用
+     */
+    public void decrementLoad(T node) {
+        AtomicLong load = getLoadCounter(node);
+        if (load != null && load.updateAndGet(n -> n > 0 ? n - 1 : 0) == 0) {
+            // 已移除节点的在途请求全部完成，删除计数
+            retiredLoads.remove(node, load);
+        }
+    }
+
+    /**
+     * 节点的在途负载，包括已移除节点尚未完成的请求
+     */
+    public long getLoad(T node) {
+        AtomicLong load = getLoadCounter(node);
+        return load == null ? 0 : load.get();
+    }
+
+    private AtomicLong getLoadCounter(Object node) {
+        AtomicLong load = loads.get(node);
+        return load != null ? load : retiredLoads.get(node);
+    }
+
+    /**
+     * 从index开始沿环顺时针找到第一个未达负载上限的节点
+     *
+     * @return 虚拟节点位置，所有节点都达到上限时返回index
+     */
+    private int boundedIndex(Ring current, int index, double factor) {
+        // 只统计环上节点的负载，当前请求也计入总负载，保证上限之和大于总负载，总能找到节点
+        long totalLoad = 0;
+        for (AtomicLong load : current.loads) {
+            totalLoad += load.get();
+        }
+        double average = factor * (totalLoad + 1) / current.totalWeight;
+        int size = current.hashes.length;
+        for (int i = 0, pos = index; i < size; i++, pos = pos + 1 == size ? 0 : pos + 1) {
+            int owner = current.owners[pos];
+            if (current.loads[owner].get() < Math.ceil(average * current.weights[owner])) {
+                return pos;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 当前节点列表，按加入顺序
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<T> getNodes() {
+        return Collections.unmodifiableList(Arrays.asList((T[]) ring.nodes));
     }
 
     /**
      * 动态添加节点
-     * 
+     *
      * @param node
+     * @param weight 权重，虚拟节点数为virtualNodeNum * weight
      */
-    public void addNode(T node) {
-        nodeMap.put(hash(node.toString()), node);
-        // 添加虚拟节点
-        for (int k = 1; k <= virtualNodeNum; k++) {
-            String vn = node.toString() + VN_CONN + k;
-            nodeMap.put(hash(vn), node);
+    @Override
+    public synchronized void addNode(T node, int weight) {
+        checkWeight(weight);
+        Ring current = ring;
+        if (indexOf(current.nodes, node) < 0) {
+            // 移除前的在途请求尚未完成时沿用原计数
+            AtomicLong retired = retiredLoads.remove(node);
+            if (retired != null) {
+                loads.put(node, retired);
+            }
+            int n = current.nodes.length;
+            Object[] nodes = Arrays.copyOf(current.nodes, n + 1);
+            nodes[n] = node;
+            int[] weights = Arrays.copyOf(current.weights, n + 1);
+            weights[n] = weight;
+            ring = buildRing(nodes, weights);
         }
     }
 
+    /**
+     * 动态调整节点权重，只增减该节点末尾的虚拟节点
+     *
+     * @param node
+     * @param weight
+     */
+    @Override
+    public synchronized void setWeight(T node, int weight) {
+        checkWeight(weight);
+        Ring current = ring;
+        int index = indexOf(current.nodes, node);
+        if (index >= 0 && current.weights[index] != weight) {
+            int[] weights = current.weights.clone();
+            weights[index] = weight;
+            ring = buildRing(current.nodes, weights);
+        }
+    }
+
+    /**
+     * 获取节点权重
+     *
+     * @return 节点不存在时返回0
+     */
+    public int getWeight(T node) {
+        Ring current = ring;
+        int index = indexOf(current.nodes, node);
+        return index < 0 ? 0 : current.weights[index];
+    }
+
     /**
      * 动态移除节点
-     * 
+     *
      * @param node
      */
-    public void removeNode(T node) {
-        nodeMap.remove(hash(node.toString()));
-        // 添加虚拟节点
-        for (int k = 1; k <= virtualNodeNum; k++) {
-            String vn = node + VN_CONN + k;
-            nodeMap.remove(hash(vn));
+    @Override
+    public synchronized void removeNode(T node) {
+        Ring current = ring;
+        int index = indexOf(current.nodes, node);
+        if (index >= 0) {
+            ring = buildRing(remove(current.nodes, index), remove(current.weights, index));
+            // 仍有在途请求时转为待清理，完成后仍能正确扣减，先放入再移出，并发的增减总能找到计数
+            AtomicLong load = loads.get(node);
+            if (load.get() > 0) {
+                retiredLoads.put(node, load);
+            }
+            loads.remove(node);
+            // 转移期间已归零
+            if (load.get() == 0) {
+                retiredLoads.remove(node, load);
+            }
+        }
+    }
+
+    /**
+     * 按节点列表构建hash环，每个节点有自身和virtualNodeNum * 权重个虚拟节点；hash相同时后加入的节点覆盖先加入的
+     */
+    private Ring buildRing(Object[] nodes, int[] weights) {
+        int total = 0;
+        for (int weight : weights) {
+            total += virtualNodeNum * weight + 1;
+        }
+        // 高32位为hash，低32位为加入顺序，排序后相同hash中顺序最大的在最后
+        long[] points = new long[total];
+        int[] orderOwners = new int[total];
+        int size = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            String name = nodes[i].toString();
+            orderOwners[size] = i;
+            points[size] = pack(hash(name), size);
+            size++;
+            for (int k = 1, vn = virtualNodeNum * weights[i]; k <= vn; k++) {
+                orderOwners[size] = i;
+                points[size] = pack(hash(name + VN_CONN + k), size);
+                size++;
+            }
+        }
+        Arrays.sort(points);
+
+        int[] hashes = new int[size];
+        int[] owners = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            int hash = (int) (points[i] >> 32);
+            if (i + 1 < size && (int) (points[i + 1] >> 32) == hash) {
+                continue;
+            }
+            hashes[count] = hash;
+            owners[count] = orderOwners[(int) points[i]];
+            count++;
+        }
+        AtomicLong[] nodeLoads = new AtomicLong[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            nodeLoads[i] = loads.computeIfAbsent(nodes[i], k -> new AtomicLong());
+        }
+        return new Ring(Arrays.copyOf(hashes, count), Arrays.copyOf(owners, count), nodes, weights, nodeLoads);
+    }
+
+    private static Object[] remove(Object[] array, int index) {
+        Object[] result = new Object[array.length - 1];
+        System.arraycopy(array, 0, result, 0, index);
+        System.arraycopy(array, index + 1, result, index, result.length - index);
+        return result;
+    }
+
+    private static int[] remove(int[] array, int index) {
+        int[] result = new int[array.length - 1];
+        System.arraycopy(array, 0, result, 0, index);
+        System.arraycopy(array, index + 1, result, index, result.length - index);
+        return result;
+    }
+
+    private static int indexOf(Object[] nodes, Object node) {
+        for (int i = 0; i < nodes.length; i++) {
+            if (nodes[i].equals(node)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void checkWeight(int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("weight must be positive");
         }
     }
 
+    private static long pack(int hash, int order) {
+        return ((long) hash << 32) | order;
+    }
+
     /**
      * hash函数计算值
-     * 
+     *
      * @param name
      * @return
      */
     private int hash(String name) {
-        return Math.abs(hashFunction.hashString(name, Charsets.UTF_8).asInt());
+        return Math.abs(Murmur3.hash32(name));
+    }
+
+    /**
+     * hash环，创建后不再修改
+     */
+    private static final class Ring {
+
+        /**
+         * 虚拟节点hash，升序
+         */
+        final int[] hashes;
+
+        /**
+         * 与hashes对应的节点下标
+         */
+        final int[] owners;
+
+        /**
+         * 节点
+         */
+        final Object[] nodes;
+
+        /**
+         * 与nodes对应的权重
+         */
+        final int[] weights;
+
+        /**
+         * 权重之和
+         */
+        final int totalWeight;
+
+        /**
+         * 与nodes对应的在途负载
+         */
+        final AtomicLong[] loads;
+
+        Ring(int[] hashes, int[] owners, Object[] nodes, int[] weights, AtomicLong[] loads) {
+            this.hashes = hashes;
+            this.owners = owners;
+            this.nodes = nodes;
+            this.weights = weights;
+            this.totalWeight = Arrays.stream(weights).sum();
+            this.loads = loads;
+        }
+
+        /**
+         * 顺时针方向第一个大于hash的虚拟节点位置，超过最大值时回到开头
+         *
+         * @return 虚拟节点位置，环为空时返回-1
+         */
+        int find(int hash) {
+            if (hashes.length == 0) {
+                return -1;
+            }
+            int index = Arrays.binarySearch(hashes, hash);
+            index = index >= 0 ? index + 1 : -index - 1;
+            return index == hashes.length ? 0 : index;
+        }
     }
 }
@@ -0,0 +1,53 @@
+package com.eveow.wtools.util.hash;
+
+import java.util.List;
+
+/**
+ * 按key路由到节点的hash策略，实现有虚拟节点环{@link ConsistentHash}、{@link JumpConsistentHash}和{@link MaglevHash}<br/>
+ * 实现均为线程安全：查找不加锁，增删节点时构建新的不可变快照后整体替换
+ *
+ * @author wangjianping
+ */
+public interface HashRouter<T> {
+
+    /**
+     * 获取对应的节点
+     *
+     * @param v 路由key，按toString()计算hash
+     * @return 没有节点时返回null
+     */
+    T getNode(Object v);
+
+    /**
+     * 动态添加权重为1的节点，已存在时不处理
+     */
+    default void addNode(T node) {
+        addNode(node, 1);
+    }
+
+    /**
+     * 动态添加节点，已存在时不处理
+     *
+     * @param node
+     * @param weight 权重，节点分到的key比例与权重成正比
+     */
+    void addNode(T node, int weight);
+
+    /**
+     * 动态调整节点权重，只迁移权重变化部分对应的key；节点不存在时不处理
+     *
+     * @param node
+     * @param weight 权重，须大于0
+     */
+    void setWeight(T node, int weight);
+
+    /**
+     * 动态移除节点，不存在时不处理
+     */
+    void removeNode(T node);
+
+    /**
+     * 当前节点列表
+     */
+    List<T> getNodes();
+}
@@ -0,0 +1,152 @@
+package com.eveow.wtools.util.hash;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Jump一致性hash（Lamping &amp; Veach），除节点列表外不占内存，查找O(log n)，各节点分布均匀<br/>
+ * 算法只能在末尾增删桶：添加节点时约1/n的key迁移到新节点；移除中间节点时把最后一个节点移到它的位置，
+ * 除被移除节点的key外，原最后一个桶的key也会重新分布，约迁移2/n的key<br/>
+ * 带权重的节点占权重个桶，调整权重时在末尾增加桶，或按上述方式移除该节点的桶
+ *
+ * @author wangjianping
+ */
+public class JumpConsistentHash<T> implements HashRouter<T> {
+
+    /**
+     * 桶对应的节点，一个节点可占多个桶，增删节点时整体替换
+     */
+    private volatile Object[] buckets;
+
+    /**
+     * 构造函数
+     *
+     * @param nodes
+     */
+    public JumpConsistentHash(T... nodes) {
+        List<T> members = new ArrayList<>();
+        if (nodes != null) {
+            for (T node : nodes) {
+                if (!members.contains(node)) {
+                    members.add(node);
+                }
+            }
+        }
+        this.buckets = members.toArray();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T getNode(Object v) {
+        Object[] current = buckets;
+        if (current.length == 0) {
+            return null;
+        }
+        return (T) current[jump(Murmur3.hash32(v.toString()) & 0xffffffffL, current.length)];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<T> getNodes() {
+        return Collections.unmodifiableList(new ArrayList<>(new LinkedHashSet<>(Arrays.asList((T[]) buckets))));
+    }
+
+    @Override
+    public synchronized void addNode(T node, int weight) {
+        checkWeight(weight);
+        Object[] current = buckets;
+        if (count(current, node) == 0) {
+            buckets = append(current, node, weight);
+        }
+    }
+
+    @Override
+    public synchronized void setWeight(T node, int weight) {
+        checkWeight(weight);
+        Object[] current = buckets;
+        int count = count(current, node);
+        if (count == 0 || count == weight) {
+            return;
+        }
+        buckets = weight > count ? append(current, node, weight - count)
+            : removeBuckets(current, node, count - weight);
+    }
+
+    /**
+     * 获取节点权重，即占用的桶数
+     */
+    public int getWeight(T node) {
+        return count(buckets, node);
+    }
+
+    @Override
+    public synchronized void removeNode(T node) {
+        Object[] current = buckets;
+        int count = count(current, node);
+        if (count > 0) {
+            buckets = removeBuckets(current, node, count);
+        }
+    }
+
+    /**
+     * 在末尾增加桶，只有落到新桶的key迁移
+     */
+    private static Object[] append(Object[] buckets, Object node, int count) {
+        Object[] next = Arrays.copyOf(buckets, buckets.length + count);
+        Arrays.fill(next, buckets.length, next.length, node);
+        return next;
+    }
+
+    /**
+     * 从后往前移除节点的count个桶，最后一个桶补到空出的位置，其余桶不变
+     */
+    private static Object[] removeBuckets(Object[] buckets, Object node, int count) {
+        Object[] next = buckets.clone();
+        int length = next.length;
+        for (int i = length - 1; i >= 0 && count > 0; i--) {
+            if (next[i].equals(node)) {
+                next[i] = next[length - 1];
+                length--;
+                count--;
+            }
+        }
+        return Arrays.copyOf(next, length);
+    }
+
+    /**
+     * jump一致性hash
+     *
+     * @param key 64位key
+     * @param buckets 桶数
+     * @return 桶号
+     */
+    static int jump(long key, int buckets) {
+        long b = -1;
+        long j = 0;
+        while (j < buckets) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+
+    private static int count(Object[] buckets, Object node) {
+        int count = 0;
+        for (Object bucket : buckets) {
+            if (bucket.equals(node)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void checkWeight(int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("weight must be positive");
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.eveow.wtools.util.hash;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Maglev一致性hash，查找表大小为一个质数M，每个节点按自己的排列轮流占位，直到填满整张表<br/>
+ * 查找为一次取模和一次数组访问，O(1)；各节点占位数相差不超过1，分布几乎完全均匀；
+ * 内存为M个int，增删节点时迁移的key略多于1/n<br/>
+ * 带权重时每一轮节点按权重个数连续占位，占位数与权重成正比；调整权重后重新填表，迁移的key接近权重变化的比例
+ *
+ * @author wangjianping
+ */
+public class MaglevHash<T> implements HashRouter<T> {
+
+    /**
+     * 默认查找表大小，应为质数且远大于节点数
+     */
+    private static final int DEFAULT_TABLE_SIZE = 65537;
+
+    /**
+     * 查找表大小
+     */
+    private final int tableSize;
+
+    /**
+     * 查找表，增删节点时整体替换
+     */
+    private volatile Table table;
+
+    /**
+     * 构造函数
+     *
+     * @param nodes
+     */
+    public MaglevHash(T... nodes) {
+        this(DEFAULT_TABLE_SIZE, nodes);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param tableSize 查找表大小，须为质数，建议至少为节点数的100倍
+     * @param nodes
+     */
+    public MaglevHash(int tableSize, T... nodes) {
+        if (!isPrime(tableSize)) {
+            throw new IllegalArgumentException("tableSize must be prime");
+        }
+        this.tableSize = tableSize;
+        List<T> members = new ArrayList<>();
+        if (nodes != null) {
+            for (T node : nodes) {
+                if (!members.contains(node)) {
+                    members.add(node);
+                }
+            }
+        }
+        int[] weights = new int[members.size()];
+        Arrays.fill(weights, 1);
+        this.table = buildTable(members.toArray(), weights);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T getNode(Object v) {
+        Table current = table;
+        if (current.nodes.length == 0) {
+            return null;
+        }
+        int slot = (int) ((Murmur3.hash32(v.toString()) & 0xffffffffL) % tableSize);
+        return (T) current.nodes[current.lookup[slot]];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<T> getNodes() {
+        return Collections.unmodifiableList(Arrays.asList((T[]) table.nodes));
+    }
+
+    @Override
+    public synchronized void addNode(T node, int weight) {
+        checkWeight(weight);
+        Table current = table;
+        if (indexOf(current.nodes, node) < 0) {
+            int n = current.nodes.length;
+            Object[] nodes = Arrays.copyOf(current.nodes, n + 1);
+            nodes[n] = node;
+            int[] weights = Arrays.copyOf(current.weights, n + 1);
+            weights[n] = weight;
+            table = buildTable(nodes, weights);
+        }
+    }
+
+    @Override
+    public synchronized void setWeight(T node, int weight) {
+        checkWeight(weight);
+        Table current = table;
+        int index = indexOf(current.nodes, node);
+        if (index >= 0 && current.weights[index] != weight) {
+            int[] weights = current.weights.clone();
+            weights[index] = weight;
+            table = buildTable(current.nodes, weights);
+        }
+    }
+
+    /**
+     * 获取节点权重
+     *
+     * @return 节点不存在时返回0
+     */
+    public int getWeight(T node) {
+        Table current = table;
+        int index = indexOf(current.nodes, node);
+        return index < 0 ? 0 : current.weights[index];
+    }
+
+    @Override
+    public synchronized void removeNode(T node) {
+        Table current = table;
+        int index = indexOf(current.nodes, node);
+        if (index >= 0) {
+            int n = current.nodes.length - 1;
+            Object[] nodes = new Object[n];
+            int[] weights = new int[n];
+            for (int i = 0, j = 0; i <= n; i++) {
+                if (i != index) {
+                    nodes[j] = current.nodes[i];
+                    weights[j] = current.weights[i];
+                    j++;
+                }
+            }
+            table = buildTable(nodes, weights);
+        }
+    }
+
+    /**
+     * 填充查找表，节点i的排列为 (offset + j * skip) mod M，offset和skip由节点名决定，与其他节点无关
+     */
+    private Table buildTable(Object[] nodes, int[] weights) {
+        int n = nodes.length;
+        int[] lookup = new int[tableSize];
+        if (n > 0) {
+            long[] offsets = new long[n];
+            long[] skips = new long[n];
+            for (int i = 0; i < n; i++) {
+                String name = nodes[i].toString();
+                offsets[i] = (Murmur3.hash32(name) & 0xffffffffL) % tableSize;
+                skips[i] = (Murmur3.hash32(name + "_skip") & 0xffffffffL) % (tableSize - 1) + 1;
+            }
+            Arrays.fill(lookup, -1);
+            // 每个节点排列中下一个要尝试的位置
+            long[] next = new long[n];
+            int filled = 0;
+            while (true) {
+                for (int i = 0; i < n; i++) {
+                    // 每一轮按权重占位
+                    for (int w = 0; w < weights[i]; w++) {
+                        int slot = (int) ((offsets[i] + next[i] * skips[i]) % tableSize);
+                        while (lookup[slot] >= 0) {
+                            next[i]++;
+                            slot = (int) ((offsets[i] + next[i] * skips[i]) % tableSize);
+                        }
+                        lookup[slot] = i;
+                        next[i]++;
+                        if (++filled == tableSize) {
+                            return new Table(lookup, nodes, weights);
+                        }
+                    }
+                }
+            }
+        }
+        return new Table(lookup, nodes, weights);
+    }
+
+    private static int indexOf(Object[] nodes, Object node) {
+        for (int i = 0; i < nodes.length; i++) {
+            if (nodes[i].equals(node)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void checkWeight(int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("weight must be positive");
+        }
+    }
+
+    private static boolean isPrime(int n) {
+        if (n < 2) {
+            return false;
+        }
+        for (int i = 2; (long) i * i <= n; i++) {
+            if (n % i == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 查找表快照，创建后不再修改
+     */
+    private static final class Table {
+
+        /**
+         * 槽位对应的节点下标
+         */
+        final int[] lookup;
+
+        /**
+         * 节点
+         */
+        final Object[] nodes;
+
+        /**
+         * 与nodes对应的权重
+         */
+        final int[] weights;
+
+        Table(int[] lookup, Object[] nodes, int[] weights) {
+            this.lookup = lookup;
+            this.nodes = nodes;
+            this.weights = weights;
+        }
+    }
+}
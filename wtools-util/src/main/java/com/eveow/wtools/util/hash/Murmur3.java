@@ -0,0 +1,81 @@
+package com.eveow.wtools.util.hash;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+/**
+ * murmur3_32哈希，结果与guava的Hashing.murmur3_32().hashString(input, UTF_8)一致<br/>
+ * 逐个字符按UTF-8编码后直接参与计算，不生成字节数组和HashCode对象，热点路径上不分配内存；
+ * 含代理字符（补充平面字符或非法字符）的字符串较少见，交由guava计算
+ *
+ * @author wangjianping
+ */
+public final class Murmur3 {
+
+    private static final int C1 = 0xcc9e2d51;
+
+    private static final int C2 = 0x1b873593;
+
+    private Murmur3() {}
+
+    /**
+     * 计算字符串UTF-8编码的murmur3_32，种子为0
+     */
+    public static int hash32(CharSequence input) {
+        int h1 = 0;
+        int length = 0;
+        long buffer = 0;
+        int shift = 0;
+        for (int i = 0, n = input.length(); i < n; i++) {
+            char c = input.charAt(i);
+            if (c < 0x80) {
+                buffer |= (long) c << shift;
+                shift += 8;
+                length++;
+            } else if (c < 0x800) {
+                buffer |= (long) ((0xc0 | (c >>> 6)) | ((0x80 | (c & 0x3f)) << 8)) << shift;
+                shift += 16;
+                length += 2;
+            } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                buffer |= (long) ((0xe0 | (c >>> 12)) | ((0x80 | ((c >>> 6) & 0x3f)) << 8)
+                    | ((0x80 | (c & 0x3f)) << 16)) << shift;
+                shift += 24;
+                length += 3;
+            } else {
+                return Hashing.murmur3_32().hashString(input, Charsets.UTF_8).asInt();
+            }
+            // 凑够4个字节计算一次
+            if (shift >= 32) {
+                h1 = mixH1(h1, mixK1((int) buffer));
+                buffer >>>= 32;
+                shift -= 32;
+            }
+        }
+        h1 ^= mixK1((int) buffer);
+        return fmix(h1, length);
+    }
+
+    private static int mixK1(int k1) {
+        k1 *= C1;
+        k1 = Integer.rotateLeft(k1, 15);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static int mixH1(int h1, int k1) {
+        h1 ^= k1;
+        h1 = Integer.rotateLeft(h1, 13);
+        h1 = h1 * 5 + 0xe6546b64;
+        return h1;
+    }
+
+    private static int fmix(int h1, int length) {
+        h1 ^= length;
+        h1 ^= h1 >>> 16;
+        h1 *= 0x85ebca6b;
+        h1 ^= h1 >>> 13;
+        h1 *= 0xc2b2ae35;
+        h1 ^= h1 >>> 16;
+        return h1;
+    }
+}
@@ -4,12 +4,19 @@ import com.google.common.base.Charsets;
 import com.google.common.hash.Hashing;
 
 import com.eveow.wtools.util.hash.ConsistentHash;
+import com.eveow.wtools.util.hash.Murmur3;
 
+import org.junit.Assert;
 import org.junit.Test;
 
 import java.util.Arrays;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
@@ -103,4 +110,199 @@ public class ConsistentHashTest {
         System.out.println(change);
         System.out.println(1.0 * change / (same + change));
     }
+
+    @Test
+    public void testMurmur3() {
+        // 覆盖1、2、3字节的UTF-8字符、各种长度以及代理字符
+        Random random = new Random(0);
+        char[] samples = {'a', 'Z', '0', '_', '\u00e9', '\u07ff', '\u4e2d', '\uffee', '\ud83d', '\ude00'};
+        for (int i = 0; i < 100000; i++) {
+            char[] chars = new char[random.nextInt(40)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = samples[random.nextInt(samples.length)];
+            }
+            String s = new String(chars);
+            Assert.assertEquals(Hashing.murmur3_32().hashString(s, Charsets.UTF_8).asInt(), Murmur3.hash32(s));
+        }
+    }
+
+    @Test
+    public void testRingLookup() {
+        String[] nodes = new String[] { "node1", "node2", "node3", "node4", "node5" };
+        ConsistentHash<String> consistentHash = new ConsistentHash<>(nodes);
+        TreeMap<Integer, String> treeRing = treeRing(nodes);
+
+        // 与TreeMap实现的路由结果一致
+        for (int i = 0; i < 1000000; i++) {
+            String v = "test_v_" + i;
+            Assert.assertEquals(treeGet(treeRing, v), consistentHash.getNode(v));
+        }
+    }
+
+    @Test
+    public void testLookupSpeed() {
+        String[] nodes = new String[64];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = "node" + i;
+        }
+        ConsistentHash<String> consistentHash = new ConsistentHash<>(nodes);
+        TreeMap<Integer, String> treeRing = treeRing(nodes);
+        String[] keys = new String[1 << 16];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "test_v_" + i;
+        }
+
+        // 先各跑几轮预热，再计时
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            int sink = 0;
+            for (int i = 0; i < 2000000; i++) {
+                sink += treeGet(treeRing, keys[i & (keys.length - 1)]).length();
+            }
+            long tree = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < 2000000; i++) {
+                sink += consistentHash.getNode(keys[i & (keys.length - 1)]).length();
+            }
+            long ring = System.nanoTime() - start;
+            System.out.println("TreeMap: " + tree / 2000000 + " ns/op, array ring: " + ring / 2000000 + " ns/op, "
+                + sink);
+        }
+    }
+
+    @Test
+    public void testConcurrentMembership() throws Exception {
+        ConsistentHash<String> consistentHash = new ConsistentHash<>("node1", "node2", "node3");
+
+        // 查找线程不加锁，与增删节点并发执行，始终能路由到节点
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong lookups = new AtomicLong();
+        AtomicLong misses = new AtomicLong();
+        CountDownLatch latch = new CountDownLatch(4);
+        for (int t = 0; t < 4; t++) {
+            new Thread(() -> {
+                long i = 0;
+                while (running.get()) {
+                    String n = consistentHash.getNode("test_v_" + (i++ & 0xffff));
+                    if (n == null || !n.startsWith("node")) {
+                        misses.incrementAndGet();
+                    }
+                }
+                lookups.addAndGet(i);
+                latch.countDown();
+            }).start();
+        }
+        for (int i = 0; i < 200; i++) {
+            consistentHash.addNode("node4");
+            consistentHash.removeNode("node4");
+        }
+        running.set(false);
+        latch.await();
+        System.out.println(lookups.get());
+        Assert.assertEquals(0, misses.get());
+        Assert.assertEquals(Arrays.asList("node1", "node2", "node3"), consistentHash.getNodes());
+    }
+
+    @Test
+    public void testBoundedLoad() {
+        String[] nodes = new String[] { "node1", "node2", "node3", "node4" };
+        ConsistentHash<String> consistentHash = new ConsistentHash<>(nodes);
+        consistentHash.setBoundedLoad(0.25);
+
+        // 负载为0时与普通模式路由一致
+        String home = consistentHash.getNode("hot_key");
+        Assert.assertEquals(new ConsistentHash<>(nodes).getNode("hot_key"), home);
+
+        // 同一个热点key的请求持续在途，超过平均负载的1.25倍后溢出到环上的下一个节点
+        for (int i = 0; i < 1000; i++) {
+            consistentHash.incrementLoad(consistentHash.getNode("hot_key"));
+        }
+        for (String node : nodes) {
+            System.out.println(node + ": " + consistentHash.getLoad(node));
+            Assert.assertTrue(consistentHash.getLoad(node) <= Math.ceil(1.25 * 1000 / 4));
+        }
+        Assert.assertEquals(313, consistentHash.getLoad(home));
+
+        // 请求完成后回到原节点
+        for (String node : nodes) {
+            while (consistentHash.getLoad(node) > 0) {
+                consistentHash.decrementLoad(node);
+            }
+        }
+        Assert.assertEquals(home, consistentHash.getNode("hot_key"));
+    }
+
+    @Test
+    public void testLoadAcrossRemoval() {
+        String[] nodes = new String[] { "node1", "node2", "node3", "node4" };
+        ConsistentHash<String> consistentHash = new ConsistentHash<>(nodes);
+        consistentHash.setBoundedLoad(0.25);
+        String home = consistentHash.getNode("hot_key");
+
+        // 节点移除后重新加入，移除前的在途请求此时才完成
+        for (int i = 0; i < 10; i++) {
+            consistentHash.incrementLoad(home);
+        }
+        consistentHash.removeNode(home);
+        Assert.assertEquals(10, consistentHash.getLoad(home));
+        consistentHash.addNode(home);
+        for (int i = 0; i < 10; i++) {
+            consistentHash.decrementLoad(home);
+        }
+        Assert.assertEquals(0, consistentHash.getLoad(home));
+
+        // 总负载没有被扣成负数，上限与从未移除时一致
+        for (int i = 0; i < 1000; i++) {
+            consistentHash.incrementLoad(consistentHash.getNode("hot_key"));
+        }
+        Assert.assertEquals(313, consistentHash.getLoad(home));
+        for (String node : nodes) {
+            while (consistentHash.getLoad(node) > 0) {
+                consistentHash.decrementLoad(node);
+            }
+        }
+
+        // 移除后不再加入，在途请求完成后计数删除，期间不计入剩余节点的总负载
+        for (int i = 0; i < 100; i++) {
+            consistentHash.incrementLoad(home);
+        }
+        consistentHash.removeNode(home);
+        ConsistentHash<String> expected = new ConsistentHash<>(nodes);
+        expected.removeNode(home);
+        expected.setBoundedLoad(0.25);
+        for (int i = 0; i < 1000; i++) {
+            consistentHash.incrementLoad(consistentHash.getNode("hot_key"));
+            expected.incrementLoad(expected.getNode("hot_key"));
+        }
+        for (String node : consistentHash.getNodes()) {
+            Assert.assertEquals(expected.getLoad(node), consistentHash.getLoad(node));
+        }
+        for (int i = 0; i < 100; i++) {
+            consistentHash.decrementLoad(home);
+        }
+        Assert.assertEquals(0, consistentHash.getLoad(home));
+        consistentHash.decrementLoad(home);
+        Assert.assertEquals(0, consistentHash.getLoad(home));
+    }
+
+    /**
+     * 原TreeMap实现的hash环，作为对照
+     */
+    private static TreeMap<Integer, String> treeRing(String[] nodes) {
+        TreeMap<Integer, String> ring = new TreeMap<>();
+        for (String node : nodes) {
+            ring.put(Math.abs(Hashing.murmur3_32().hashString(node, Charsets.UTF_8).asInt()), node);
+            for (int k = 1; k <= 100; k++) {
+                ring.put(Math.abs(Hashing.murmur3_32().hashString(node + "_vn_" + k, Charsets.UTF_8).asInt()), node);
+            }
+        }
+        return ring;
+    }
+
+    private static String treeGet(TreeMap<Integer, String> ring, String v) {
+        Map.Entry<Integer, String> entry = ring.higherEntry(
+            Math.abs(Hashing.murmur3_32().hashString(v, Charsets.UTF_8).asInt()));
+        return entry == null ? ring.firstEntry().getValue() : entry.getValue();
+    }
 }
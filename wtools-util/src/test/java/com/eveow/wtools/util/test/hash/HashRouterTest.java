@@ -0,0 +1,141 @@
+package com.eveow.wtools.util.test.hash;
+
+import com.google.common.hash.Hashing;
+
+import com.eveow.wtools.util.hash.ConsistentHash;
+import com.eveow.wtools.util.hash.HashRouter;
+import com.eveow.wtools.util.hash.JumpConsistentHash;
+import com.eveow.wtools.util.hash.MaglevHash;
+import com.eveow.wtools.util.hash.Murmur3;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * @author wangjianping
+ */
+public class HashRouterTest {
+
+    private static final int KEYS = 1000000;
+
+    @Test
+    public void testJumpMatchesGuava() {
+        String[] nodes = nodes(10);
+        JumpConsistentHash<String> jump = new JumpConsistentHash<>(nodes);
+        for (int i = 0; i < KEYS; i++) {
+            String v = "test_v_" + i;
+            long key = Murmur3.hash32(v) & 0xffffffffL;
+            Assert.assertEquals(nodes[Hashing.consistentHash(key, nodes.length)], jump.getNode(v));
+        }
+    }
+
+    @Test
+    public void testMaglevBalance() {
+        MaglevHash<String> maglev = new MaglevHash<>(nodes(10));
+        Map<String, Integer> counts = distribution(maglev);
+        // 各节点占位数几乎相同，key分布只受key本身hash的随机性影响
+        counts.values().forEach(c -> Assert.assertTrue(Math.abs(c - KEYS / 10) < KEYS / 10 * 0.02));
+    }
+
+    @Test
+    public void testCompare() {
+        compare("ring", new ConsistentHash<>(nodes(10)), 101 * 10 * 8);
+        compare("jump", new JumpConsistentHash<>(nodes(10)), 0);
+        compare("maglev", new MaglevHash<>(nodes(10)), 65537 * 4);
+    }
+
+    @Test
+    public void testWeights() {
+        weights("ring", new ConsistentHash<>(nodes(4)), 0.1);
+        weights("jump", new JumpConsistentHash<>(nodes(4)), 0.02);
+        weights("maglev", new MaglevHash<>(nodes(4)), 0.02);
+    }
+
+    /**
+     * 权重为3的节点分到3/7的key，权重降为1后分到1/5，只迁移约3/7 - 1/5的key
+     */
+    private void weights(String name, HashRouter<String> router, double tolerance) {
+        router.addNode("node4", 3);
+        double share = 1.0 * distribution(router).get("node4") / KEYS;
+        Assert.assertEquals(3.0 / 7, share, tolerance);
+
+        String[] before = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            before[i] = router.getNode("test_v_" + i);
+        }
+        router.setWeight("node4", 1);
+        double moved = moved(router, before);
+        share = 1.0 * distribution(router).get("node4") / KEYS;
+        System.out.println(name + ": share " + share + ", moved " + moved);
+        Assert.assertEquals(1.0 / 5, share, tolerance);
+        Assert.assertTrue(moved < 3.0 / 7 - 1.0 / 5 + 0.05);
+    }
+
+    /**
+     * 对比查找速度、分布、内存和增删节点时的key迁移比例
+     */
+    private void compare(String name, HashRouter<String> router, int tableBytes) {
+        String[] keys = new String[1 << 16];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "test_v_" + i;
+        }
+        long cost = 0;
+        int sink = 0;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 2000000; i++) {
+                sink += router.getNode(keys[i & (keys.length - 1)]).length();
+            }
+            cost = System.nanoTime() - start;
+        }
+
+        Map<String, Integer> counts = distribution(router);
+        int max = counts.values().stream().max(Integer::compare).orElse(0);
+        int min = counts.values().stream().min(Integer::compare).orElse(0);
+
+        String[] before = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            before[i] = router.getNode("test_v_" + i);
+        }
+        router.addNode("node10");
+        double added = moved(router, before);
+        router.removeNode("node10");
+        router.removeNode("node3");
+        double removed = moved(router, before);
+
+        System.out.println(name + ": " + cost / 2000000 + " ns/op, table " + tableBytes + " bytes, max/min "
+            + (1.0 * max / min) + ", moved on add " + added + ", moved on remove " + removed + ", " + sink);
+        // 添加第11个节点，理想迁移比例为1/11
+        Assert.assertTrue(added < 0.15);
+    }
+
+    private static double moved(HashRouter<String> router, String[] before) {
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            if (!Objects.equals(before[i], router.getNode("test_v_" + i))) {
+                moved++;
+            }
+        }
+        return 1.0 * moved / KEYS;
+    }
+
+    private static Map<String, Integer> distribution(HashRouter<String> router) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(router.getNode("test_v_" + i), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    private static String[] nodes(int n) {
+        String[] nodes = new String[n];
+        for (int i = 0; i < n; i++) {
+            nodes[i] = "node" + i;
+        }
+        return nodes;
+    }
+}